@@ -0,0 +1,299 @@
+package example;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Generates synthetic, Scotland sized fixtures for the benchmarks so they run offline without the SIMD data.
+ * Zones tile a grid of cells over the extent of mainland Scotland. Each cell edge is a wiggly line shared by
+ * the two cells either side of it, so zones meet without gaps or overlaps as real data zones do. A few zones
+ * are split into two parts sharing a name, as the multi-part data zones are.
+ */
+public class BenchmarkData {
+
+    /** Number of SIMD 2020 data zones. */
+    public static final int SCOTLAND_ZONES = 6976;
+    /** Default average number of vertices in a zone polygon. */
+    public static final int DEFAULT_VERTICES = 300;
+
+    private static final double MIN_LAT = 54.63;
+    private static final double MAX_LAT = 58.67;
+    private static final double MIN_LON = -7.60;
+    private static final double MAX_LON = -1.75;
+    // Every PART_INTERVAL-th zone is the second part of the zone before it
+    private static final int PART_INTERVAL = 40;
+
+    private long seed;
+    private int rows;
+    private int cols;
+    private double cellLat;
+    private double cellLon;
+    private int verticesPerEdge;
+    private double[][] lats;
+    private double[][] lons;
+    private String[] fileNames;
+    private ArrayList<String> names = new ArrayList<>();
+
+    /**
+     * Generates the zone geometry.
+     * @param zoneCount - Number of zone polygons, SCOTLAND_ZONES for a full sized fixture.
+     * @param meanVertices - Average number of vertices in a zone polygon.
+     * @param seed - Seed making the fixture repeatable.
+     */
+    public BenchmarkData(int zoneCount, int meanVertices, long seed) {
+        this.seed = seed;
+        double aspect = (MAX_LAT - MIN_LAT) / ((MAX_LON - MIN_LON) * Math.cos(Math.toRadians((MIN_LAT + MAX_LAT) / 2)));
+        this.rows = Math.max(1, (int) Math.ceil(Math.sqrt(zoneCount * aspect)));
+        this.cols = (zoneCount + rows - 1) / rows;
+        this.cellLat = (MAX_LAT - MIN_LAT) / rows;
+        this.cellLon = (MAX_LON - MIN_LON) / cols;
+        this.verticesPerEdge = Math.max(2, meanVertices / 4 - 1);
+        this.lats = new double[zoneCount][];
+        this.lons = new double[zoneCount][];
+        this.fileNames = new String[zoneCount];
+
+        for (int zone = 0; zone < zoneCount; zone++) {
+            int row = zone / cols;
+            int col = zone % cols;
+            createCell(zone, row, col);
+            if (zone % PART_INTERVAL == PART_INTERVAL - 1 && col > 0) {
+                String name = names.get(names.size() - 1);
+                fileNames[zone - 1] = name + "-part-1.csv";
+                fileNames[zone] = name + "-part-2.csv";
+            } else {
+                String name = String.format("S01%06d", zone);
+                names.add(name);
+                fileNames[zone] = name + ".csv";
+            }
+        }
+    }
+
+    /**
+     * Creates a DataZone for every zone name, grouping the parts of multi-part zones, with metrics attached
+     * as Main.loadDataZoneMetrics() returns them.
+     * @return ArrayList containing the data zones.
+     */
+    public ArrayList<DataZone> createZones() {
+        ArrayList<double[][]> geometries = new ArrayList<>(lats.length);
+        for (int zone = 0; zone < lats.length; zone++) {
+            geometries.add(new double[][]{lats[zone], lons[zone]});
+        }
+        ArrayList<DataZone> zones = Main.createDataZones(Arrays.asList(fileNames), geometries);
+        int[][] metrics = metrics(new Random(seed));
+        HashMap<String, Integer> rows = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            rows.put(names.get(i), i);
+        }
+        for (DataZone dataZone : zones) {
+            int[] row = metrics[rows.get(dataZone.getName())];
+            dataZone.setPopulation2020(row[0]);
+            dataZone.setPopulation2016(row[1]);
+            dataZone.setGeoAccessDomain2020(row[2]);
+            dataZone.setGeoAccessDomain2016(row[3]);
+            dataZone.setGeoAccess2020Rank(row[4]);
+        }
+        return zones;
+    }
+
+    /**
+     * Writes one CSV file per zone polygon in the format read by Main.loadDataZones(File).
+     * @param directory - Folder to write the files to, created if needed.
+     * @throws IOException If a file cannot be written.
+     */
+    public void writeZoneDirectory(File directory) throws IOException {
+        directory.mkdirs();
+        for (int zone = 0; zone < lats.length; zone++) {
+            try (PrintWriter pw = new PrintWriter(new File(directory, fileNames[zone]))) {
+                pw.println("Latitude,Longitude");
+                for (int i = 0; i < lats[zone].length; i++) {
+                    pw.println(lats[zone][i] + "," + lons[zone][i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the SIMD metrics CSV read by Main.loadDataZoneMetrics, one row per zone name.
+     * @param file - File to write.
+     * @throws FileNotFoundException If the file cannot be created.
+     */
+    public void writeMetricsFile(File file) throws FileNotFoundException {
+        int[][] metrics = metrics(new Random(seed));
+        try (PrintWriter pw = new PrintWriter(file)) {
+            pw.println("Data_Zone,pop2020,pop2016,GeoAcess_Domain_2020,GeoAcess_Domain_2016," +
+                    "GeoAccess_Calculation_Broadband,GeoAccess_Calculation,Rank");
+            for (int i = 0; i < names.size(); i++) {
+                int[] row = metrics[i];
+                pw.println(names.get(i) + "," + row[0] + "," + row[1] + "," + row[2] + "," + row[3] + "," +
+                        row[2] / 1000.0 + "," + row[3] / 1000.0 + "," + row[4]);
+            }
+        }
+    }
+
+    /**
+     * Generates journeys ending at random points over the extent of the zones, with travel times which grow
+     * with the distance from the centre of the extent, as for an analysis from a central starting point.
+     * @param count - Number of journeys.
+     * @param maxMinutes - Longest travel time in minutes, negative for an inbound analysis.
+     * @param seed - Seed making the journeys repeatable.
+     * @return JourneyBatch holding the journeys.
+     */
+    public JourneyBatch createJourneys(int count, int maxMinutes, long seed) {
+        Random random = new Random(seed);
+        JourneyBatch journeys = new JourneyBatch(count);
+        double centreLat = (MIN_LAT + MAX_LAT) / 2;
+        double centreLon = (MIN_LON + MAX_LON) / 2;
+        int sign = maxMinutes < 0 ? -1 : 1;
+        maxMinutes = Math.abs(maxMinutes);
+        for (int i = 0; i < count; i++) {
+            double lat = MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+            double lon = MIN_LON + random.nextDouble() * (MAX_LON - MIN_LON);
+            double distance = Math.hypot((lat - centreLat) / (MAX_LAT - MIN_LAT),
+                    (lon - centreLon) / (MAX_LON - MIN_LON)) * Math.sqrt(2);
+            int minutes = (int) Math.ceil(maxMinutes * distance * (0.7 + 0.6 * random.nextDouble()));
+            journeys.add(lat, lon, sign * Math.max(1, Math.min(maxMinutes, minutes)));
+        }
+        return journeys;
+    }
+
+    /**
+     * Returns the starting point the journeys are generated around.
+     * @return double array containing the latitude and longitude of the centre of the extent.
+     */
+    public double[] getStartingPoint() {
+        return new double[]{(MIN_LAT + MAX_LAT) / 2, (MIN_LON + MAX_LON) / 2};
+    }
+
+    /**
+     * Replaces System.out with a stream discarding everything, so printing calls can be measured without
+     * the cost of writing to the console.
+     * @return The previous System.out, to be restored after the benchmark.
+     */
+    public static PrintStream silenceSystemOut() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return out;
+    }
+
+    /**
+     * Deletes a file or a folder and everything in it.
+     * @param file - File or folder to delete.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // Population, 2016 population, geographical access scores for 2020 and 2016 and rank for each zone name
+    private int[][] metrics(Random random) {
+        int[][] metrics = new int[names.size()][5];
+        int[] order = new int[names.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        for (int i = 0; i < metrics.length; i++) {
+            metrics[i][0] = 400 + random.nextInt(800);
+            metrics[i][1] = metrics[i][0] + random.nextInt(81) - 40;
+            metrics[i][2] = order[i] + 1;
+            metrics[i][3] = Math.max(1, Math.min(metrics.length, order[i] + 1 + random.nextInt(201) - 100));
+            metrics[i][4] = 1 + order[i] * 10 / metrics.length;
+        }
+        return metrics;
+    }
+
+    // Creates the closed polygon of the cell from its bottom, right, top and left edges
+    private void createCell(int zone, int row, int col) {
+        double[][] bottom = edge(true, row, col);
+        double[][] right = edge(false, row, col + 1);
+        double[][] top = edge(true, row + 1, col);
+        double[][] left = edge(false, row, col);
+        int edgeLength = bottom[0].length + right[0].length + top[0].length + left[0].length;
+        double[] cellLats = new double[edgeLength - 3];
+        double[] cellLons = new double[edgeLength - 3];
+        int size = append(cellLats, cellLons, 0, bottom, false, false);
+        size = append(cellLats, cellLons, size, right, false, true);
+        size = append(cellLats, cellLons, size, top, true, true);
+        append(cellLats, cellLons, size, left, true, true);
+        lats[zone] = cellLats;
+        lons[zone] = cellLons;
+    }
+
+    // Copies an edge into the polygon arrays, optionally reversed and without its first point
+    private static int append(double[] polygonLats, double[] polygonLons, int size, double[][] edge,
+                              boolean reverse, boolean skipFirst) {
+        int length = edge[0].length;
+        for (int i = skipFirst ? 1 : 0; i < length; i++) {
+            int point = reverse ? length - 1 - i : i;
+            polygonLats[size] = edge[0][point];
+            polygonLons[size] = edge[1][point];
+            size++;
+        }
+        return size;
+    }
+
+    // Points of the edge leaving grid corner (i, j) eastwards when horizontal or northwards when not. The points
+    // depend only on the edge, so the cells either side of it share them.
+    private double[][] edge(boolean horizontal, int i, int j) {
+        long key = horizontal ? 1 : 2;
+        int points = verticesPerEdge / 2 + (int) (unit(key, i, j) * verticesPerEdge) + 2;
+        double[] start = corner(i, j);
+        double[] end = horizontal ? corner(i, j + 1) : corner(i + 1, j);
+        boolean border = horizontal ? i == 0 || i == rows : j == 0 || j == cols;
+        double amplitude = border ? 0 : 0.12 * (horizontal ? cellLat : cellLon);
+        double[] phases = {unit(key, i, j + 7919) * 2 * Math.PI, unit(key, i + 7919, j) * 2 * Math.PI,
+                unit(key + 2, i, j) * 2 * Math.PI};
+
+        double[][] edge = new double[2][points];
+        for (int p = 0; p < points; p++) {
+            double t = (double) p / (points - 1);
+            double wiggle = amplitude * Math.sin(Math.PI * t) * (Math.sin(2 * Math.PI * t + phases[0]) +
+                    Math.sin(5 * Math.PI * t + phases[1]) + Math.sin(11 * Math.PI * t + phases[2])) / 3;
+            edge[0][p] = start[0] + t * (end[0] - start[0]) + (horizontal ? wiggle : 0);
+            edge[1][p] = start[1] + t * (end[1] - start[1]) + (horizontal ? 0 : wiggle);
+        }
+        return edge;
+    }
+
+    // Latitude and longitude of grid corner (i, j), moved slightly unless it is on the border of the grid
+    private double[] corner(int i, int j) {
+        double lat = MIN_LAT + i * cellLat;
+        double lon = MIN_LON + j * cellLon;
+        if (i > 0 && i < rows && j > 0 && j < cols) {
+            lat += (unit(3, i, j) - 0.5) * 0.2 * cellLat;
+            lon += (unit(4, i, j) - 0.5) * 0.2 * cellLon;
+        }
+        return new double[]{lat, lon};
+    }
+
+    // Repeatable value in [0, 1) for the key and grid position
+    private double unit(long key, int i, int j) {
+        long hash = mix(seed ^ mix(key * 0x9E3779B97F4A7C15L + mix(((long) i << 32) ^ j)));
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    // SplitMix64 finaliser
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,32 @@
+package example;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so each result is reported with the bytes allocated per
+ * operation and the garbage collections it caused. Every fixture is generated, so no data files are needed.
+ *
+ * The benchmarks are compiled together with src/example and src/vector against jmh-core, with
+ * jmh-generator-annprocess on the annotation processor path to generate the harness and
+ * --add-modules jdk.incubator.vector for src/vector's PackedPolygon, and run with
+ * java --add-modules jdk.incubator.vector -cp &lt;classes, lucene-core and jmh jars&gt; example.BenchmarkRunner
+ * [JMH options]
+ * Any JMH command line options may be given, for example a regular expression selecting benchmarks such as
+ * ContainsBenchmark or -p journeys=100000 to fix a parameter.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,89 @@
+package example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole PopulationCalculation, from assigning the journeys to zones through binning the
+ * populations, for 10^4 to 10^6 journeys over a Scotland sized set of zones, with the journeys in the order
+ * generated or sorted along a Hilbert curve.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CalculationBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int journeys;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"false", "true"})
+    public boolean hilbertOrder;
+
+    private DataZoneStore dataZones;
+    private JourneyBatch journeyBatch;
+    private PrintStream out;
+
+    /**
+     * Generates the zones and journeys.
+     */
+    @Setup
+    public void setUp() {
+        BenchmarkData data = new BenchmarkData(BenchmarkData.SCOTLAND_ZONES, BenchmarkData.DEFAULT_VERTICES, 1);
+        dataZones = new DataZoneStore(data.createZones());
+        journeyBatch = data.createJourneys(journeys, 180, 2);
+        out = BenchmarkData.silenceSystemOut();
+    }
+
+    /**
+     * Restores System.out.
+     */
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    /**
+     * Creates and performs the calculation.
+     * @return Population in each travel time interval.
+     */
+    @Benchmark
+    public long[] calculate() {
+        PopulationCalculation calculation = new PopulationCalculation(dataZones, journeyBatch, 3, 30);
+        calculation.setParallelism(parallelism);
+        calculation.setHilbertOrder(hilbertOrder);
+        calculation.calculate();
+        return calculation.getPopulation2020Bins();
+    }
+
+    /**
+     * Creates the calculation and prints the results as Main does, with printing discarded.
+     * @return The calculation printed.
+     */
+    @Benchmark
+    public PopulationCalculation print() {
+        PopulationCalculation calculation = new PopulationCalculation(dataZones, journeyBatch, 3, 30);
+        calculation.setParallelism(parallelism);
+        calculation.setHilbertOrder(hilbertOrder);
+        calculation.print();
+        return calculation;
+    }
+}
@@ -0,0 +1,138 @@
+package example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the point in polygon test of a single data zone, and finding the zone holding a point through
+ * the bounding box index. Points are drawn from the bounding boxes of random zones, so roughly as many
+ * tests succeed as fail. Each benchmark runs with both exact point in polygon engines, PackedPolygonCheck
+ * checks that they agree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ContainsBenchmark {
+
+    private static final int POINTS = 4096;
+
+    @Param({"50", "300", "1000"})
+    public int vertices;
+
+    @Param({"POLYGON2D", "VECTOR"})
+    public DataZone.ContainsEngine engine;
+
+    private DataZoneStore dataZones;
+    private int[] zones = new int[POINTS];
+    private double[] lats = new double[POINTS];
+    private double[] lons = new double[POINTS];
+    // The same points ordered by zone, the points of zone z at zoneStarts[z] to zoneStarts[z + 1] - 1
+    private int[] zoneStarts;
+    private double[] zoneLats = new double[POINTS];
+    private double[] zoneLons = new double[POINTS];
+    private boolean[] inside = new boolean[POINTS];
+
+    /**
+     * Generates the zones and the points tested against them.
+     */
+    @Setup
+    public void setUp() {
+        ArrayList<DataZone> zoneList = new BenchmarkData(BenchmarkData.SCOTLAND_ZONES, vertices, 1).createZones();
+        dataZones = new DataZoneStore(zoneList);
+        Random random = new Random(2);
+        for (int i = 0; i < POINTS; i++) {
+            zones[i] = random.nextInt(zoneList.size());
+            DataZone dataZone = zoneList.get(zones[i]);
+            lats[i] = dataZone.getMinLatitude() +
+                    random.nextDouble() * (dataZone.getMaxLatitude() - dataZone.getMinLatitude());
+            lons[i] = dataZone.getMinLongitude() +
+                    random.nextDouble() * (dataZone.getMaxLongitude() - dataZone.getMinLongitude());
+        }
+        zoneStarts = new int[zoneList.size() + 1];
+        for (int zone : zones) {
+            zoneStarts[zone + 1]++;
+        }
+        for (int zone = 0; zone < zoneList.size(); zone++) {
+            zoneStarts[zone + 1] += zoneStarts[zone];
+        }
+        int[] next = zoneStarts.clone();
+        for (int i = 0; i < POINTS; i++) {
+            zoneLats[next[zones[i]]] = lats[i];
+            zoneLons[next[zones[i]]++] = lons[i];
+        }
+        DataZone.setContainsEngine(engine);
+    }
+
+    /**
+     * DataZone.contains for a point within the bounding box of the zone.
+     * @return Number of points inside their zone.
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int contains() {
+        int inside = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (dataZones.getZone(zones[i]).contains(lats[i], lons[i])) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Tests the points of each zone together against the zone, as a batch.
+     * @return Number of points inside their zone.
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int containsBatch() {
+        for (int zone = 0; zone < zoneStarts.length - 1; zone++) {
+            dataZones.contains(zone, zoneLats, zoneLons, zoneStarts[zone], zoneStarts[zone + 1], inside);
+        }
+        int found = 0;
+        for (boolean point : inside) {
+            if (point) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every zone holding the point, querying the index and testing each candidate as
+     * PopulationCalculation does.
+     * @return Total number of zones holding the points.
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int locate() {
+        int[] found = new int[1];
+        for (int i = 0; i < POINTS; i++) {
+            double lat = lats[i];
+            double lon = lons[i];
+            dataZones.getIndex().query(lat, lon, zone -> {
+                if (dataZones.contains(zone, lat, lon)) {
+                    found[0]++;
+                }
+            });
+        }
+        return found[0];
+    }
+}
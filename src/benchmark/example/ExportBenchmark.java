@@ -0,0 +1,65 @@
+package example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing every output file of a performed calculation with ExportFiles into a temporary folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExportBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int journeys;
+
+    private PopulationCalculation calculation;
+    private double[] startingPoint;
+    private File directory;
+
+    /**
+     * Generates the zones and journeys and performs the calculation.
+     * @throws IOException If the temporary folder cannot be created.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkData data = new BenchmarkData(BenchmarkData.SCOTLAND_ZONES, BenchmarkData.DEFAULT_VERTICES, 1);
+        calculation = new PopulationCalculation(new DataZoneStore(data.createZones()),
+                data.createJourneys(journeys, 180, 2), 3, 30);
+        calculation.calculate();
+        startingPoint = data.getStartingPoint();
+        directory = Files.createTempDirectory("zone-export").toFile();
+    }
+
+    /**
+     * Deletes the written files.
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public ExportFiles export() throws IOException {
+        return new ExportFiles(calculation, startingPoint, new File(directory, "export"));
+    }
+}
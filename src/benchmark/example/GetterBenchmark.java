@@ -0,0 +1,100 @@
+package example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each getter of a performed PopulationCalculation, as called by ExportFiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GetterBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int journeys;
+
+    private PopulationCalculation calculation;
+
+    /**
+     * Generates the zones and journeys and performs the calculation.
+     */
+    @Setup
+    public void setUp() {
+        BenchmarkData data = new BenchmarkData(BenchmarkData.SCOTLAND_ZONES, BenchmarkData.DEFAULT_VERTICES, 1);
+        calculation = new PopulationCalculation(new DataZoneStore(data.createZones()),
+                data.createJourneys(journeys, 180, 2), 3, 30);
+        calculation.calculate();
+    }
+
+    @Benchmark
+    public HashMap<String, Double> getMap() {
+        return calculation.getMap();
+    }
+
+    @Benchmark
+    public HashMap<Integer, Integer> getMap2020() {
+        return calculation.getMap2020();
+    }
+
+    @Benchmark
+    public HashMap<Integer, Integer> getMap2016() {
+        return calculation.getMap2016();
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> getGeoAcessMap2020() {
+        return calculation.getGeoAcessMap2020();
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> getGeoAcessMap2016() {
+        return calculation.getGeoAcessMap2016();
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> getMap2020Rank() {
+        return calculation.getMap2020Rank();
+    }
+
+    @Benchmark
+    public ArrayList<double[]> getList() {
+        return calculation.getList();
+    }
+
+    @Benchmark
+    public ArrayList<double[]> getCheckJourneys() {
+        return calculation.getCheckJourneys();
+    }
+
+    @Benchmark
+    public double[] getZoneDurations() {
+        return calculation.getZoneDurations();
+    }
+
+    @Benchmark
+    public int[] getJourneyZones() {
+        return calculation.getJourneyZones();
+    }
+
+    @Benchmark
+    public long[] getCumulativePopulation2020() {
+        return calculation.getCumulativePopulation2020();
+    }
+}
@@ -0,0 +1,89 @@
+package example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading the data zones from a folder of CSV files and from the packed geometry file, attaching the
+ * SIMD metrics and building the DataZoneStore. The fixture files are generated into a temporary folder, and
+ * the File overloads are called as Main.loadDataZones() and Main.loadDataZoneMetrics() read fixed paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoaderBenchmark {
+
+    private File directory;
+    private File zoneDirectory;
+    private File geometryFile;
+    private File metricsFile;
+    private ArrayList<DataZone> zones;
+    private PrintStream out;
+
+    /**
+     * Writes the fixture files.
+     * @throws IOException If the files cannot be written.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkData data = new BenchmarkData(BenchmarkData.SCOTLAND_ZONES, BenchmarkData.DEFAULT_VERTICES, 1);
+        directory = Files.createTempDirectory("zone-loader").toFile();
+        zoneDirectory = new File(directory, "zones");
+        geometryFile = new File(directory, "DataZones.bin");
+        metricsFile = new File(directory, "SIMD_Data_Zone_Metrics.csv");
+        data.writeZoneDirectory(zoneDirectory);
+        ZoneGeometryFile.write(zoneDirectory, geometryFile);
+        data.writeMetricsFile(metricsFile);
+        zones = data.createZones();
+        out = BenchmarkData.silenceSystemOut();
+    }
+
+    /**
+     * Restores System.out and deletes the fixture files.
+     */
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public ArrayList<DataZone> loadDataZonesCsv() {
+        return Main.loadDataZones(zoneDirectory);
+    }
+
+    @Benchmark
+    public ArrayList<DataZone> loadDataZonesPacked() throws IOException {
+        return ZoneGeometryFile.read(geometryFile);
+    }
+
+    @Benchmark
+    public ArrayList<DataZone> loadDataZoneMetrics() {
+        Main.loadDataZoneMetrics(zones, metricsFile);
+        return zones;
+    }
+
+    @Benchmark
+    public DataZoneStore createDataZoneStore() {
+        return new DataZoneStore(zones);
+    }
+}
@@ -0,0 +1,143 @@
+package example;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * AnalysisJob describes one reachability analysis in a batch: an origin, a direction and a maximum travel time.
+ */
+public class AnalysisJob {
+
+    private String name;
+    private double latitude;
+    private double longitude;
+    private Duration maxTravelTime;
+    private int bin;
+
+    /**
+     * Constructor for creating AnalysisJob.
+     * @param name - Name of the job, used for its output folder so it may not hold path separators or "..".
+     * @param latitude - Latitude of the origin (starting point) of the analysis.
+     * @param longitude - Longitude of the origin (starting point) of the analysis.
+     * @param maxTravelTime - Maximum travel time, negative for an inbound analysis as in Main. Must be a whole
+     *                      number of bins.
+     * @param bin - Desired time increment in minutes for travel intervals.
+     * @throws IllegalArgumentException If the name is not a plain folder name, or the bin is not positive or does
+     *                                  not divide the maximum travel time.
+     */
+    public AnalysisJob(String name, double latitude, double longitude, Duration maxTravelTime, int bin) {
+        // The name is a folder below the output folder, so it must not reach outside it
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.contains(File.separator) ||
+                name.contains("..") || name.equals(".")) {
+            throw new IllegalArgumentException("Job name " + name + " is not a plain folder name");
+        }
+        if (bin <= 0) {
+            throw new IllegalArgumentException("Bin must be positive: " + bin);
+        }
+        if (maxTravelTime.toSeconds() % 60 != 0 || maxTravelTime.toMinutes() % bin != 0) {
+            throw new IllegalArgumentException("Maximum travel time " + maxTravelTime.abs().toMinutes() +
+                    " minutes is not a whole number of " + bin + " minute bins");
+        }
+        this.name = name;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.maxTravelTime = maxTravelTime;
+        this.bin = bin;
+    }
+
+    /**
+     * Reads jobs from a CSV file with a header line followed by one job per line in the form
+     * Name,Latitude,Longitude,Direction,Max_Travel_Time_Minutes,Bin where Direction is inbound or outbound.
+     * Max_Travel_Time_Minutes must be a whole number of bins, and names must be unique plain folder names, without
+     * path separators or "..", as each job writes to the folder named after it.
+     * @param file - CSV file listing the jobs.
+     * @return ArrayList containing the jobs in file order.
+     * @throws IOException If the file cannot be read, a line is not a valid job or a name is repeated.
+     */
+    public static ArrayList<AnalysisJob> load(File file) throws IOException {
+        ArrayList<AnalysisJob> jobs = new ArrayList<>();
+        HashSet<String> names = new HashSet<>();
+        try (BufferedReader inputStream = new BufferedReader(new FileReader(file))) {
+            // Skips header line
+            String line = inputStream.readLine();
+            int lineNumber = 1;
+
+            while ((line = inputStream.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split(",");
+                try {
+                    boolean inbound = parts[3].trim().equalsIgnoreCase("inbound");
+                    if (!inbound && !parts[3].trim().equalsIgnoreCase("outbound")) {
+                        throw new IllegalArgumentException("Direction must be inbound or outbound");
+                    }
+                    Duration maxTravelTime = Duration.ofMinutes(Long.parseLong(parts[4].trim()));
+                    if (!names.add(parts[0].trim())) {
+                        throw new IllegalArgumentException("Job name " + parts[0].trim() + " is repeated");
+                    }
+                    jobs.add(new AnalysisJob(parts[0].trim(), Double.parseDouble(parts[1].trim()),
+                            Double.parseDouble(parts[2].trim()), inbound ? maxTravelTime.negated() : maxTravelTime,
+                            Integer.parseInt(parts[5].trim())));
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException(file + " line " + lineNumber + " is not a valid job: " + line, e);
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Returns the name of the job.
+     * @return Name of the job.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the latitude of the origin.
+     * @return Latitude of the origin.
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Returns the longitude of the origin.
+     * @return Longitude of the origin.
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Returns the maximum travel time, negative for an inbound analysis.
+     * @return Maximum travel time.
+     */
+    public Duration getMaxTravelTime() {
+        return maxTravelTime;
+    }
+
+    /**
+     * Returns the time increment in minutes for travel intervals.
+     * @return Bin width in minutes.
+     */
+    public int getBin() {
+        return bin;
+    }
+
+    /**
+     * Returns whether the job is an inbound analysis.
+     * @return True for inbound, false for outbound.
+     */
+    public boolean isInbound() {
+        return maxTravelTime.isNegative();
+    }
+}
@@ -0,0 +1,167 @@
+package example;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Runs many reachability analyses against one set of loaded data zones. Each job gets its own
+ * PopulationCalculation and output folder, and jobs run concurrently on a bounded thread pool. The exact point
+ * in polygon test is selected for the whole process through DataZone.setContainsEngine.
+ */
+public class BatchRunner {
+
+    private DataZoneStore dataZones;
+    private Function<AnalysisJob, ArrayList<Journey>> journeySource;
+    private File outputDirectory;
+    private int threads;
+    private ResultCache resultCache;
+    private PopulationCalculation.Aggregation aggregation = PopulationCalculation.Aggregation.FIRST;
+    private ZoneSnapper zoneSnapper;
+    private ZoneGrid zoneGrid;
+    private boolean hilbertOrder;
+
+    /**
+     * Constructor for creating BatchRunner.
+     * @param dataZones - DataZoneStore shared by every job, loaded once.
+     * @param journeySource - Performs the inbound/outbound analysis for a job and returns its journeys.
+     * @param outputDirectory - Folder under which each job's files are written to a folder named after the job,
+     *                        so job names should be unique.
+     * @param threads - Maximum number of jobs run at the same time.
+     */
+    public BatchRunner(DataZoneStore dataZones, Function<AnalysisJob, ArrayList<Journey>> journeySource,
+                       File outputDirectory, int threads) {
+        this.dataZones = dataZones;
+        this.journeySource = journeySource;
+        this.outputDirectory = outputDirectory;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets a cache of earlier results, jobs found in it have their files copied from the cache instead of
+     * being calculated and exported. Their journeys are still requested from the journey source, as they are
+     * part of the cache key.
+     * @param resultCache - Cache of results and exported files, or null to calculate every job.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Sets how the journeys within each data zone are reduced to the zone's travel time, for every job.
+     * @param aggregation - Aggregation of the journeys within each data zone, FIRST by default.
+     */
+    public void setAggregation(PopulationCalculation.Aggregation aggregation) {
+        this.aggregation = aggregation;
+    }
+
+    /**
+     * Sets the snapper used by every job, see {@link PopulationCalculation#setZoneSnapper(ZoneSnapper)}.
+     * @param zoneSnapper - Index of the zone boundaries built from the same DataZoneStore, or null to drop
+     *                    journeys outside every zone.
+     */
+    public void setZoneSnapper(ZoneSnapper zoneSnapper) {
+        this.zoneSnapper = zoneSnapper;
+    }
+
+    /**
+     * Sets the grid used by every job, see {@link PopulationCalculation#setZoneGrid(ZoneGrid)}.
+     * @param zoneGrid - Grid built from the same DataZoneStore, or null to test journeys against the zones.
+     */
+    public void setZoneGrid(ZoneGrid zoneGrid) {
+        this.zoneGrid = zoneGrid;
+    }
+
+    /**
+     * Sets whether every job sorts its journeys along a Hilbert curve, see
+     * {@link PopulationCalculation#setHilbertOrder(boolean)}.
+     * @param hilbertOrder - Whether to sort the journeys, false by default.
+     */
+    public void setHilbertOrder(boolean hilbertOrder) {
+        this.hilbertOrder = hilbertOrder;
+    }
+
+    /**
+     * Runs every job, writing its files and printing a line as each one finishes, followed by the throughput.
+     * Timings and counters of all the jobs together are written to Batch_Run_Metrics.json in the output folder.
+     * A failing job is reported and does not stop the others.
+     * @param jobs - Jobs to run.
+     * @return Number of jobs which completed successfully.
+     * @throws InterruptedException If interrupted while waiting for the jobs.
+     */
+    public int run(List<AnalysisJob> jobs) throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> results = new ArrayList<>();
+        try {
+            for (AnalysisJob job : jobs) {
+                results.add(executor.submit(() -> {
+                    runJob(job);
+                    return null;
+                }));
+            }
+            int completed = 0;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                    completed++;
+                } catch (ExecutionException e) {
+                    System.out.println("Job " + jobs.get(i).getName() + " failed: " + e.getCause());
+                }
+            }
+            double minutes = (System.nanoTime() - start) / 60e9;
+            try {
+                outputDirectory.mkdirs();
+                RunMetrics.writeSummary(new File(outputDirectory, "Batch_Run_Metrics.json"));
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+            System.out.println(completed + " of " + jobs.size() + " jobs completed in " +
+                    String.format("%.2f", minutes * 60) + " s (" +
+                    String.format("%.1f", completed / minutes) + " jobs per minute).");
+            return completed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Calculates and exports one job
+    private void runJob(AnalysisJob job) throws IOException {
+        long start = System.nanoTime();
+        ArrayList<Journey> journeys = journeySource.apply(job);
+        Duration maxTravelTime = job.getMaxTravelTime();
+        double[] startingPoint = new double[]{job.getLatitude(), job.getLongitude()};
+        String direction = job.isInbound() ? "Inbound Analysis" : "Outbound Analysis";
+        File destination = new File(new File(outputDirectory, direction), job.getName());
+        String key = null;
+        if (resultCache != null) {
+            key = ResultCache.key(startingPoint, Math.toIntExact(maxTravelTime.toMinutes()), job.getBin(),
+                    aggregation, zoneSnapper == null ? -1 : zoneSnapper.getMaxDistance(), dataZones, journeys);
+            if (resultCache.copyExports(key, destination)) {
+                System.out.println("Job " + job.getName() + " copied from cache in " +
+                        (System.nanoTime() - start) / 1000000 + " ms, " + journeys.size() + " journeys.");
+                return;
+            }
+        }
+        PopulationCalculation calculation = new PopulationCalculation(dataZones, journeys, maxTravelTime,
+                job.getBin());
+        calculation.setZoneGrid(zoneGrid);
+        calculation.setAggregation(aggregation);
+        calculation.setZoneSnapper(zoneSnapper);
+        calculation.setHilbertOrder(hilbertOrder);
+        calculation.calculate();
+        new ExportFiles(calculation, startingPoint, destination);
+        if (resultCache != null) {
+            resultCache.put(key, calculation, destination);
+        }
+        System.out.println("Job " + job.getName() + " finished in " + (System.nanoTime() - start) / 1000000 +
+                " ms, " + journeys.size() + " journeys.");
+    }
+}
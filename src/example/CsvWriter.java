@@ -0,0 +1,201 @@
+package example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a CSV file through a fixed size buffer, so memory use does not grow with the number of rows. Numbers
+ * are formatted straight into the buffer without creating a String for each value.
+ */
+public class CsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Largest long whose conversion to double is exact
+    private static final long MAX_EXACT = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[18];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] digits = new byte[20];
+
+    /**
+     * Creates the file, replacing any existing file.
+     * @param file - File to write.
+     * @throws IOException If the file cannot be created.
+     */
+    public CsvWriter(File file) throws IOException {
+        this.channel = new FileOutputStream(file).getChannel();
+    }
+
+    /**
+     * Writes text, such as a header or a data zone name.
+     * @param text - Text to write.
+     * @throws IOException If the buffer cannot be flushed to the file.
+     */
+    public void write(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                writeBytes(text.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    /**
+     * Writes a single ASCII character, such as a separator or a line break.
+     * @param c - Character to write.
+     * @throws IOException If the buffer cannot be flushed to the file.
+     */
+    public void write(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) c);
+    }
+
+    /**
+     * Writes a whole number.
+     * @param value - Number to write.
+     * @throws IOException If the buffer cannot be flushed to the file.
+     */
+    public void write(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(Long.toString(value));
+            return;
+        }
+        if (buffer.remaining() < digits.length) {
+            flush();
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0) {
+            buffer.put(digits[--length]);
+        }
+    }
+
+    /**
+     * Writes a decimal number using the fewest fraction digits which read back as exactly the same double,
+     * with at least one fraction digit as Double.toString writes them. Values which cannot be written this way,
+     * very large or small values, infinities and NaN, are written with Double.toString.
+     * @param value - Number to write.
+     * @throws IOException If the buffer cannot be flushed to the file.
+     */
+    public void write(double value) throws IOException {
+        double magnitude = Math.abs(value);
+        if (!(magnitude >= 1e-3 && magnitude < 1e7) && value != 0) {
+            write(Double.toString(value));
+            return;
+        }
+        // Binary search for the smallest scale whose rounded value reads back exactly, among the scales
+        // leaving the scaled value small enough to be held exactly
+        int low = 0;
+        int high = -1;
+        for (int scale = POWERS_OF_TEN.length - 1; scale >= 0; scale--) {
+            if (magnitude * POWERS_OF_TEN[scale] < MAX_EXACT) {
+                high = scale;
+                break;
+            }
+        }
+        if (high < 0 || !readsBack(magnitude, high)) {
+            write(Double.toString(value));
+            return;
+        }
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (readsBack(magnitude, middle)) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+        writeFixed(negative, (long) Math.rint(magnitude * POWERS_OF_TEN[low]), Math.max(1, low), low);
+    }
+
+    // Whether the value rounded to the number of fraction digits reads back as the same double. Dividing exact
+    // integers by an exact power of ten rounds correctly, as parsing the text does.
+    private static boolean readsBack(double magnitude, int scale) {
+        return Math.rint(magnitude * POWERS_OF_TEN[scale]) / POWERS_OF_TEN[scale] == magnitude;
+    }
+
+    // Writes unscaled / 10^scale with the given number of fraction digits
+    private void writeFixed(boolean negative, long unscaled, int fractionDigits, int scale) throws IOException {
+        if (buffer.remaining() < digits.length + 2) {
+            flush();
+        }
+        if (negative) {
+            buffer.put((byte) '-');
+        }
+        int length = 0;
+        for (int i = scale; i < fractionDigits; i++) {
+            digits[length++] = '0';
+        }
+        do {
+            digits[length++] = (byte) ('0' + unscaled % 10);
+            unscaled /= 10;
+        } while (unscaled != 0 || length <= fractionDigits);
+        while (length > 0) {
+            if (length == fractionDigits) {
+                buffer.put((byte) '.');
+            }
+            buffer.put(digits[--length]);
+        }
+    }
+
+    // Writes bytes which may not fit in the buffer
+    private void writeBytes(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put(b);
+        }
+    }
+
+    // Writes the contents of the buffer to the file and clears it
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes anything still buffered and closes the file.
+     * @throws IOException If the file cannot be written or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            RunMetrics.count("bytesWritten", channel.position());
+        } finally {
+            channel.close();
+        }
+    }
+}
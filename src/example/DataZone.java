@@ -2,23 +2,92 @@ package example;
 
 import org.apache.lucene.geo.Polygon;
 import org.apache.lucene.geo.Polygon2D;
+import org.apache.lucene.index.PointValues.Relation;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * DataZone represents SIMD data zone.
+ * DataZone represents SIMD data zone. Zones made up of several separate areas, such as island zones, are held
+ * as a single DataZone with one polygon per part.
  */
 public class DataZone {
 
-    private double[] lons;
-    private double[] lats;
     private String name;
-    private Polygon polygon;
+    private Polygon[] polygons;
     private Polygon2D polygon2D;
+    // Vertices packed for the vector engine, created on its first use
+    private volatile PointInPolygon packedPolygon;
+    private double minLat;
+    private double maxLat;
+    private double minLon;
+    private double maxLon;
     private int population2020;
     private int population2016;
     private int geoAccessDomain2020;
     private int geoAccessDomain2016;
     private int geoAccess2020Rank;
+    // Rectangle inside the polygon, points in it are contained without the exact test. Found on the first contains
+    // test reaching it, as it takes many relate calls, and empty if none was found.
+    private volatile boolean interiorFound;
+    private double innerMinLat = Double.POSITIVE_INFINITY;
+    private double innerMaxLat = Double.NEGATIVE_INFINITY;
+    private double innerMinLon = Double.POSITIVE_INFINITY;
+    private double innerMaxLon = Double.NEGATIVE_INFINITY;
+    // Range of longitude + latitude and longitude - latitude over the vertices. With the bounding box these bound
+    // the polygon by an octagon around its convex hull, points outside it are not contained.
+    private double minSum;
+    private double maxSum;
+    private double minDifference;
+    private double maxDifference;
+
+    // Margin in degrees by which the filters are made conservative, so rounding cannot change a result
+    private static final double FILTER_EPSILON = 1e-9;
+    // Points per side of the grid of candidate centres for the interior rectangle
+    private static final int INTERIOR_SAMPLES = 4;
+    // Halving steps when growing the interior rectangle
+    private static final int INTERIOR_STEPS = 12;
+
+    // Results of the filters run before the exact test
+    private static final int OUTSIDE = 0;
+    private static final int INSIDE = 1;
+    private static final int UNDECIDED = 2;
+
+    private static volatile ContainsEngine containsEngine = ContainsEngine.POLYGON2D;
+    // Constructor of PackedPolygon, loaded by name when the vector engine is first selected so the core build
+    // does not need the incubating Vector API
+    private static volatile Constructor<? extends PointInPolygon> packedPolygonConstructor;
+    // Whether contains counts the tests decided by each filter, off by default as it runs in the hottest loop
+    private static boolean filterStatistics;
+
+    private static final LongAdder containsTests = RunMetrics.counter("containsTests");
+    private static final LongAdder boxRejects = RunMetrics.counter("containsBoxRejects");
+    private static final LongAdder hullRejects = RunMetrics.counter("containsHullRejects");
+    private static final LongAdder interiorAccepts = RunMetrics.counter("containsInteriorAccepts");
+
+    /**
+     * Exact point in polygon test run for points the filters leave undecided. Both engines give the same result
+     * for every point.
+     */
+    public enum ContainsEngine {
+        /** Lucene's Polygon2D, testing one edge at a time through its tree of edges. */
+        POLYGON2D,
+        /**
+         * PackedPolygon, testing several edges or points at a time. Needs src/vector compiled and the JVM
+         * started with --add-modules jdk.incubator.vector.
+         */
+        VECTOR
+    }
 
+    /**
+     * Exact point in polygon test over the polygons of a data zone, implemented by the vector engine's
+     * PackedPolygon.
+     */
+    public interface PointInPolygon {
+        boolean contains(double latitude, double longitude);
+        void contains(double[] latitudes, double[] longitudes, int from, int to, boolean[] inside);
+    }
 
     /**
      * Constructor for creating DataZone.
@@ -29,11 +98,38 @@ public class DataZone {
      * @param name - The name of the data zone which is being represented. Follows the format of S.........
      */
     public DataZone(double[] latitude, double[] longitude,String name) {
-        this.lons = longitude;
-        this.lats = latitude;
+        this(new double[][]{latitude}, new double[][]{longitude}, name);
+    }
+
+    /**
+     * Constructor for creating a DataZone made up of several parts, such as a zone covering several islands.
+     * @param latitudes - Latitude coordinates of the polygon of each part. The first and last elements of each
+     *                  array must be equal.
+     * @param longitudes - Longitude coordinates of the polygon of each part. The first and last elements of each
+     *                  array must be equal.
+     * @param name - The name of the data zone, or of the file holding any one of its parts.
+     */
+    public DataZone(double[][] latitudes, double[][] longitudes, String name) {
         setName(name);
-        this.polygon = new Polygon(this.lats,this.lons);
+        this.polygons = new Polygon[latitudes.length];
+        for (int i = 0; i < latitudes.length; i++) {
+            this.polygons[i] = new Polygon(latitudes[i], longitudes[i]);
+        }
         setPolygon2D();
+        setBounds();
+        setHull();
+    }
+
+    /**
+     * Returns the data zone name for the file holding a zone or one part of a zone, the file name without
+     * its extension and any -part-n suffix.
+     * @param fileName - Name of the data zone file, such as S01000001.csv or S01000001-part-2.csv.
+     * @return SIMD data zone name.
+     */
+    public static String getZoneName(String fileName){
+        int extension = fileName.lastIndexOf(".");
+        String name = extension >= 0 ? fileName.substring(0, extension) : fileName;
+        return name.length() > 9 ? name.substring(0, 9) : name;
     }
 
     /**
@@ -95,13 +191,122 @@ public class DataZone {
 
     // Sets DataZones name by removing .csv file extension and -part-n from non-self-enclosing data zones
     private void setName(String name){
-        this.name = name.substring(0,name.lastIndexOf("."));
-        this.name = name.substring(0,9);
+        this.name = getZoneName(name);
     }
 
-    // Creates the Polygon2D object from the Polygon object
+    // Creates the Polygon2D object from the Polygon objects of every part
     private void setPolygon2D(){
-        this.polygon2D = Polygon2D.create(this.polygon);
+        this.polygon2D = Polygon2D.create(this.polygons);
+    }
+
+    // Finds the bounding box around every part
+    private void setBounds(){
+        minLat = minLon = Double.POSITIVE_INFINITY;
+        maxLat = maxLon = Double.NEGATIVE_INFINITY;
+        for (Polygon polygon : polygons) {
+            minLat = Math.min(minLat, polygon.minLat);
+            maxLat = Math.max(maxLat, polygon.maxLat);
+            minLon = Math.min(minLon, polygon.minLon);
+            maxLon = Math.max(maxLon, polygon.maxLon);
+        }
+    }
+
+    // Finds the diagonal bounds of the octagon around the polygon
+    private void setHull(){
+        minSum = minDifference = Double.POSITIVE_INFINITY;
+        maxSum = maxDifference = Double.NEGATIVE_INFINITY;
+        for (Polygon polygon : polygons) {
+            double[] lats = polygon.getPolyLats();
+            double[] lons = polygon.getPolyLons();
+            for (int i = 0; i < lats.length; i++) {
+                minSum = Math.min(minSum, lons[i] + lats[i]);
+                maxSum = Math.max(maxSum, lons[i] + lats[i]);
+                minDifference = Math.min(minDifference, lons[i] - lats[i]);
+                maxDifference = Math.max(maxDifference, lons[i] - lats[i]);
+            }
+        }
+        minSum -= FILTER_EPSILON;
+        maxSum += FILTER_EPSILON;
+        minDifference -= FILTER_EPSILON;
+        maxDifference += FILTER_EPSILON;
+    }
+
+    // Finds the interior rectangle once, whichever thread needs it first
+    private synchronized void findInteriorRectangle(){
+        if (!interiorFound) {
+            setInteriorRectangle();
+            interiorFound = true;
+        }
+    }
+
+    // Finds a large rectangle inside the polygon, within the part with the largest bounding box. A square is grown
+    // around each of a grid of sample points inside the part, then each side of the largest square is pushed out
+    // as far as it stays inside.
+    private void setInteriorRectangle(){
+        Polygon polygon = polygons[0];
+        for (Polygon part : polygons) {
+            if ((part.maxLat - part.minLat) * (part.maxLon - part.minLon) >
+                    (polygon.maxLat - polygon.minLat) * (polygon.maxLon - polygon.minLon)) {
+                polygon = part;
+            }
+        }
+        double height = polygon.maxLat - polygon.minLat;
+        double width = polygon.maxLon - polygon.minLon;
+        double[] best = null;
+        double bestSize = 0;
+        for (int i = 1; i < INTERIOR_SAMPLES; i++) {
+            for (int j = 1; j < INTERIOR_SAMPLES; j++) {
+                double lat = polygon.minLat + height * i / INTERIOR_SAMPLES;
+                double lon = polygon.minLon + width * j / INTERIOR_SAMPLES;
+                if (!polygon2D.contains(lat, lon) || (bestSize > 0 && !isInside(lat - bestSize, lat + bestSize,
+                        lon - bestSize, lon + bestSize))) {
+                    continue;
+                }
+                double low = bestSize;
+                double high = Math.max(height, width) / 2;
+                for (int step = 0; step < INTERIOR_STEPS; step++) {
+                    double middle = (low + high) / 2;
+                    if (isInside(lat - middle, lat + middle, lon - middle, lon + middle)) {
+                        low = middle;
+                    } else {
+                        high = middle;
+                    }
+                }
+                if (low > bestSize) {
+                    bestSize = low;
+                    best = new double[]{lat - low, lat + low, lon - low, lon + low};
+                }
+            }
+        }
+        if (best == null) {
+            return;
+        }
+        double[] limits = {polygon.minLat, polygon.maxLat, polygon.minLon, polygon.maxLon};
+        for (int side = 0; side < 4; side++) {
+            double low = best[side];
+            double high = limits[side];
+            for (int step = 0; step < INTERIOR_STEPS; step++) {
+                double middle = (low + high) / 2;
+                double previous = best[side];
+                best[side] = middle;
+                if (isInside(best[0], best[1], best[2], best[3])) {
+                    low = middle;
+                } else {
+                    high = middle;
+                    best[side] = previous;
+                }
+            }
+            best[side] = low;
+        }
+        innerMinLat = best[0] + FILTER_EPSILON;
+        innerMaxLat = best[1] - FILTER_EPSILON;
+        innerMinLon = best[2] + FILTER_EPSILON;
+        innerMaxLon = best[3] - FILTER_EPSILON;
+    }
+
+    // Whether the rectangle is entirely inside the polygon
+    private boolean isInside(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude){
+        return polygon2D.relate(minLatitude, maxLatitude, minLongitude, maxLongitude) == Relation.CELL_INSIDE_QUERY;
     }
 
     /**
@@ -137,13 +342,251 @@ public class DataZone {
     }
 
     /**
-     * Calls the contains method of the Polygon2D class. Determines if the point
-     * is contained within the polygon.
+     * Returns the minimum latitude of the data zone's bounding box.
+     * @return Minimum latitude of the data zone.
+     */
+    public double getMinLatitude(){
+        return this.minLat;
+    }
+
+    /**
+     * Returns the maximum latitude of the data zone's bounding box.
+     * @return Maximum latitude of the data zone.
+     */
+    public double getMaxLatitude(){
+        return this.maxLat;
+    }
+
+    /**
+     * Returns the minimum longitude of the data zone's bounding box.
+     * @return Minimum longitude of the data zone.
+     */
+    public double getMinLongitude(){
+        return this.minLon;
+    }
+
+    /**
+     * Returns the maximum longitude of the data zone's bounding box.
+     * @return Maximum longitude of the data zone.
+     */
+    public double getMaxLongitude(){
+        return this.maxLon;
+    }
+
+    /**
+     * Returns the polygons making up the data zone, one for each part, for writing its boundary.
+     * @return Array of the data zone's polygons.
+     */
+    public Polygon[] getPolygons(){
+        return this.polygons;
+    }
+
+    /**
+     * Determines if the point is contained within the polygon. Points outside the bounding box or the octagon
+     * around the convex hull are rejected and points inside the interior rectangle accepted without an exact
+     * test, any other point is tested by the engine selected with setContainsEngine, Polygon2D or PackedPolygon.
      * @param latitude - Latitude (y) coordinate of the point being searched
      * @param longitude - Longitude (x) coordinate of the point being searched.
      * @return - Whether the point is contained within the polygon.
      */
     public boolean contains(double latitude,double longitude){
+        int filtered = filter(latitude, longitude);
+        if (filtered != UNDECIDED) {
+            return filtered == INSIDE;
+        }
+        if (containsEngine == ContainsEngine.VECTOR) {
+            return getPackedPolygon().contains(latitude, longitude);
+        }
         return this.polygon2D.contains(latitude,longitude);
     }
+
+    // Decides the point with the bounding box, hull and interior rectangle filters if they can, returning OUTSIDE,
+    // INSIDE or UNDECIDED when the exact test is needed
+    private int filter(double latitude, double longitude){
+        boolean counting = filterStatistics;
+        if (counting) {
+            containsTests.increment();
+        }
+        if (latitude < minLat || latitude > maxLat || longitude < minLon || longitude > maxLon) {
+            if (counting) {
+                boxRejects.increment();
+            }
+            return OUTSIDE;
+        }
+        double sum = longitude + latitude;
+        double difference = longitude - latitude;
+        if (sum < minSum || sum > maxSum || difference < minDifference || difference > maxDifference) {
+            if (counting) {
+                hullRejects.increment();
+            }
+            return OUTSIDE;
+        }
+        if (!interiorFound) {
+            findInteriorRectangle();
+        }
+        if (latitude >= innerMinLat && latitude <= innerMaxLat &&
+                longitude >= innerMinLon && longitude <= innerMaxLon) {
+            if (counting) {
+                interiorAccepts.increment();
+            }
+            return INSIDE;
+        }
+        return UNDECIDED;
+    }
+
+    /**
+     * Determines which of a batch of points are within the polygon. With the vector engine the points the filters
+     * applied by contains leave undecided are gathered and tested together, several at a time.
+     * @param latitudes - Latitude (y) coordinates of the points.
+     * @param longitudes - Longitude (x) coordinates of the points.
+     * @param from - Index of the first point tested.
+     * @param to - Index after the last point tested.
+     * @param inside - Set to whether each point is contained, at the same index as the point.
+     */
+    public void contains(double[] latitudes, double[] longitudes, int from, int to, boolean[] inside){
+        if (containsEngine != ContainsEngine.VECTOR) {
+            for (int i = from; i < to; i++) {
+                inside[i] = contains(latitudes[i], longitudes[i]);
+            }
+            return;
+        }
+        int[] undecided = new int[to - from];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int filtered = filter(latitudes[i], longitudes[i]);
+            if (filtered == UNDECIDED) {
+                undecided[count++] = i;
+            } else {
+                inside[i] = filtered == INSIDE;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        double[] undecidedLats = new double[count];
+        double[] undecidedLons = new double[count];
+        for (int i = 0; i < count; i++) {
+            undecidedLats[i] = latitudes[undecided[i]];
+            undecidedLons[i] = longitudes[undecided[i]];
+        }
+        boolean[] undecidedInside = new boolean[count];
+        getPackedPolygon().contains(undecidedLats, undecidedLons, 0, count, undecidedInside);
+        for (int i = 0; i < count; i++) {
+            inside[undecided[i]] = undecidedInside[i];
+        }
+    }
+
+    /**
+     * Returns the vertices packed for the vector engine, packing them on the first call. Concurrent first calls
+     * may each pack them, any of the copies being equivalent.
+     * @return PackedPolygon of the data zone.
+     * @throws IllegalStateException If PackedPolygon cannot be loaded, see {@link ContainsEngine#VECTOR}.
+     */
+    public PointInPolygon getPackedPolygon(){
+        PointInPolygon packed = packedPolygon;
+        if (packed == null) {
+            try {
+                packed = packedPolygon = getPackedPolygonConstructor().newInstance((Object) polygons);
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return packed;
+    }
+
+    // Loads PackedPolygon on first use, failing if it was not compiled or the Vector API is not available
+    private static Constructor<? extends PointInPolygon> getPackedPolygonConstructor(){
+        Constructor<? extends PointInPolygon> constructor = packedPolygonConstructor;
+        if (constructor == null) {
+            try {
+                constructor = packedPolygonConstructor = Class.forName("example.PackedPolygon")
+                        .asSubclass(PointInPolygon.class).getConstructor(Polygon[].class);
+            } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+                throw new IllegalStateException("The vector contains engine needs src/vector compiled and the " +
+                        "JVM started with --add-modules jdk.incubator.vector", e);
+            }
+        }
+        return constructor;
+    }
+
+    /**
+     * Selects the exact point in polygon test used by every data zone.
+     * @param engine - Engine to use, POLYGON2D by default.
+     * @throws IllegalStateException If the VECTOR engine is selected but PackedPolygon cannot be loaded.
+     */
+    public static void setContainsEngine(ContainsEngine engine){
+        if (engine == ContainsEngine.VECTOR) {
+            getPackedPolygonConstructor();
+        }
+        containsEngine = engine;
+    }
+
+    /**
+     * Returns the exact point in polygon test used by every data zone.
+     * @return Engine in use.
+     */
+    public static ContainsEngine getContainsEngine(){
+        return containsEngine;
+    }
+
+    /**
+     * Sets whether contains counts the tests decided by each filter, as the containsTests, containsBoxRejects,
+     * containsHullRejects and containsInteriorAccepts run counters. The counts are shared by every calculation in
+     * the process, so turn them on for tuning runs only.
+     * @param enabled - Whether to count, false by default.
+     */
+    public static void setFilterStatistics(boolean enabled){
+        filterStatistics = enabled;
+    }
+
+    /**
+     * Returns how often contains was decided by each filter over all data zones since the counts were reset,
+     * for tuning the filters on real data, counted while setFilterStatistics is on. Tests left to the exact
+     * polygon test are the remainder.
+     * @return Text listing the number of contains tests and the share decided by each filter.
+     */
+    public static String getFilterStatistics(){
+        long tests = containsTests.sum();
+        long boxes = boxRejects.sum();
+        long hulls = hullRejects.sum();
+        long interiors = interiorAccepts.sum();
+        long exact = tests - boxes - hulls - interiors;
+        return tests + " contains tests: " + share(boxes, tests) + " rejected by bounding box, " +
+                share(hulls, tests) + " rejected by hull, " + share(interiors, tests) +
+                " accepted by interior rectangle, " + share(exact, tests) + " exact polygon tests.";
+    }
+
+    /**
+     * Sets the filter counts reported by getFilterStatistics back to zero.
+     */
+    public static void resetFilterStatistics(){
+        containsTests.reset();
+        boxRejects.reset();
+        hullRejects.reset();
+        interiorAccepts.reset();
+    }
+
+    // Formats the count with its percentage of the total
+    private static String share(long count, long total){
+        return count + " (" + String.format("%.1f", total == 0 ? 0.0 : 100.0 * count / total) + "%)";
+    }
+
+    /**
+     * Calls the relate method of the Polygon2D class. Determines how a latitude/longitude rectangle
+     * relates to the polygon.
+     * @param minLatitude - Minimum latitude of the rectangle.
+     * @param maxLatitude - Maximum latitude of the rectangle.
+     * @param minLongitude - Minimum longitude of the rectangle.
+     * @param maxLongitude - Maximum longitude of the rectangle.
+     * @return - CELL_INSIDE_QUERY if the rectangle is entirely within the polygon, CELL_OUTSIDE_QUERY if it
+     *           does not touch the polygon and CELL_CROSSES_QUERY otherwise.
+     */
+    public Relation relate(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude){
+        return this.polygon2D.relate(minLatitude,maxLatitude,minLongitude,maxLongitude);
+    }
 }
@@ -0,0 +1,312 @@
+package example;
+
+import org.apache.lucene.geo.Polygon;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Holds the loaded SIMD data zones under dense int ids, 0 to size() - 1, in the order they were loaded.
+ * Zone attributes are kept in primitive columns indexed by id and names are only needed when writing output.
+ * Each name is expected once, multi-part zones being loaded as a single DataZone.
+ */
+public class DataZoneStore {
+
+    private DataZone[] zones;
+    private String[] names;
+    private int[] population2020;
+    private int[] population2016;
+    private int[] geoAccessDomain2020;
+    private int[] geoAccessDomain2016;
+    private int[] geoAccess2020Rank;
+    private SpatialIndex index;
+    private byte[] version;
+    private byte[] geometryVersion;
+    private ZoneAdjacency adjacency;
+    // Bounding box around every zone, the extent of the Hilbert curve points are ordered along
+    private double minLat = Double.POSITIVE_INFINITY;
+    private double maxLat = Double.NEGATIVE_INFINITY;
+    private double minLon = Double.POSITIVE_INFINITY;
+    private double maxLon = Double.NEGATIVE_INFINITY;
+    private int[] hilbertOrder;
+
+    /**
+     * Creates the store from the loaded data zones, copying their metrics into columns and
+     * indexing their bounding boxes. Zones sharing a name are reported, as their populations would be counted
+     * once for each of them.
+     * @param dataZones - List containing all SIMD DataZones with their metrics loaded.
+     */
+    public DataZoneStore(List<DataZone> dataZones) {
+        int size = dataZones.size();
+        this.zones = dataZones.toArray(new DataZone[0]);
+        this.names = new String[size];
+        this.population2020 = new int[size];
+        this.population2016 = new int[size];
+        this.geoAccessDomain2020 = new int[size];
+        this.geoAccessDomain2016 = new int[size];
+        this.geoAccess2020Rank = new int[size];
+
+        HashSet<String> seen = new HashSet<>(size * 2);
+        int duplicates = 0;
+        for (int id = 0; id < size; id++) {
+            DataZone dataZone = zones[id];
+            names[id] = dataZone.getName();
+            if (!seen.add(names[id])) {
+                duplicates++;
+            }
+            population2020[id] = dataZone.getPopulation2020();
+            population2016[id] = dataZone.getPopulation2016();
+            geoAccessDomain2020[id] = dataZone.getGeoAccessDomain2020();
+            geoAccessDomain2016[id] = dataZone.getGeoAccessDomain2016();
+            geoAccess2020Rank[id] = dataZone.getGeoAccess2020Rank();
+            minLat = Math.min(minLat, dataZone.getMinLatitude());
+            maxLat = Math.max(maxLat, dataZone.getMaxLatitude());
+            minLon = Math.min(minLon, dataZone.getMinLongitude());
+            maxLon = Math.max(maxLon, dataZone.getMaxLongitude());
+        }
+        if (duplicates > 0) {
+            System.out.println(duplicates + " data zones share a name with an earlier zone, " +
+                    "load multi-part zones with Main.createDataZones.");
+        }
+        this.index = SpatialIndex.forZones(dataZones);
+    }
+
+    /**
+     * Returns the number of data zones held.
+     * @return Number of data zones.
+     */
+    public int size() {
+        return zones.length;
+    }
+
+    /**
+     * Returns the DataZone holding the geometry of the zone.
+     * @param id - Id of the data zone.
+     * @return DataZone with the given id.
+     */
+    public DataZone getZone(int id) {
+        return zones[id];
+    }
+
+    /**
+     * Returns the SIMD data zone name, used when writing output.
+     * @param id - Id of the data zone.
+     * @return SIMD data zone name.
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Determines if the point is contained within the polygon of the data zone.
+     * @param id - Id of the data zone.
+     * @param latitude - Latitude (y) coordinate of the point being searched.
+     * @param longitude - Longitude (x) coordinate of the point being searched.
+     * @return Whether the point is contained within the data zone.
+     */
+    public boolean contains(int id, double latitude, double longitude) {
+        return zones[id].contains(latitude, longitude);
+    }
+
+    /**
+     * Determines which of a batch of points are within a data zone.
+     * @param id - Id of the data zone.
+     * @param latitudes - Latitude (y) coordinates of the points.
+     * @param longitudes - Longitude (x) coordinates of the points.
+     * @param from - Index of the first point tested.
+     * @param to - Index after the last point tested.
+     * @param inside - Set to whether each point is contained, at the same index as the point.
+     */
+    public void contains(int id, double[] latitudes, double[] longitudes, int from, int to, boolean[] inside) {
+        zones[id].contains(latitudes, longitudes, from, to, inside);
+    }
+
+    /**
+     * Returns a SHA-256 digest of the data zone names, boundaries and metrics in id order, identifying this
+     * version of the data zones. It is calculated on the first call.
+     * @return 32 byte digest of the data zones.
+     */
+    public synchronized byte[] getVersion() {
+        if (version == null) {
+            version = digest(true);
+        }
+        return version.clone();
+    }
+
+    /**
+     * Returns a SHA-256 digest of the data zone names and boundaries in id order, identifying the geometry of
+     * the data zones whatever their metrics. It is calculated on the first call.
+     * @return 32 byte digest of the data zone geometry.
+     */
+    public synchronized byte[] getGeometryVersion() {
+        if (geometryVersion == null) {
+            geometryVersion = digest(false);
+        }
+        return geometryVersion.clone();
+    }
+
+    // Digests the name and every ring of each zone, holes included, and optionally its metrics
+    private byte[] digest(boolean metrics) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        for (int id = 0; id < zones.length; id++) {
+            byte[] name = names[id].getBytes(StandardCharsets.UTF_8);
+            digestIfFull(digest, buffer, 4 + name.length + 24);
+            buffer.putInt(name.length).put(name);
+            if (metrics) {
+                buffer.putInt(population2020[id]).putInt(population2016[id]).putInt(geoAccessDomain2020[id])
+                        .putInt(geoAccessDomain2016[id]).putInt(geoAccess2020Rank[id]);
+            }
+            Polygon[] polygons = zones[id].getPolygons();
+            buffer.putInt(polygons.length);
+            for (Polygon polygon : polygons) {
+                digestRing(digest, buffer, polygon);
+                digestIfFull(digest, buffer, 4);
+                buffer.putInt(polygon.getHoles().length);
+                for (Polygon hole : polygon.getHoles()) {
+                    digestRing(digest, buffer, hole);
+                }
+            }
+        }
+        buffer.flip();
+        digest.update(buffer);
+        return digest.digest();
+    }
+
+    // Adds the vertex count and vertices of a ring to the buffer, digesting it whenever it fills
+    private static void digestRing(MessageDigest digest, ByteBuffer buffer, Polygon ring) {
+        double[] lats = ring.getPolyLats();
+        double[] lons = ring.getPolyLons();
+        digestIfFull(digest, buffer, 4);
+        buffer.putInt(lats.length);
+        for (int i = 0; i < lats.length; i++) {
+            digestIfFull(digest, buffer, 16);
+            buffer.putDouble(lats[i]).putDouble(lons[i]);
+        }
+    }
+
+    // Adds the contents of the buffer to the digest and clears it if there is no room for the next values
+    private static void digestIfFull(MessageDigest digest, ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Orders points along a Hilbert curve over the bounding box of every data zone, so points near each other
+     * on the ground are near each other in the order. Points outside the box are ordered along its edge.
+     * @param latitudes - Latitude (y) coordinates of the points.
+     * @param longitudes - Longitude (x) coordinates of the points.
+     * @param count - Number of points, the first count elements of the arrays are used.
+     * @return Indices of the points in curve order, points at the same position keeping their original order.
+     */
+    public int[] sortAlongHilbertCurve(double[] latitudes, double[] longitudes, int count) {
+        if (zones.length == 0) {
+            return HilbertCurve.sort(longitudes, latitudes, count, 0, 0, 0, 0);
+        }
+        return HilbertCurve.sort(longitudes, latitudes, count, minLon, minLat, maxLon - minLon, maxLat - minLat);
+    }
+
+    /**
+     * Returns the zone ids ordered along the Hilbert curve by the centres of their bounding boxes, calculated on
+     * the first call. Ids themselves keep the load order.
+     * @return Array of every zone id in curve order.
+     */
+    public synchronized int[] getHilbertOrder() {
+        if (hilbertOrder == null) {
+            double[] centreLats = new double[zones.length];
+            double[] centreLons = new double[zones.length];
+            for (int id = 0; id < zones.length; id++) {
+                centreLats[id] = (zones[id].getMinLatitude() + zones[id].getMaxLatitude()) / 2;
+                centreLons[id] = (zones[id].getMinLongitude() + zones[id].getMaxLongitude()) / 2;
+            }
+            hilbertOrder = sortAlongHilbertCurve(centreLats, centreLons, zones.length);
+        }
+        return hilbertOrder;
+    }
+
+    /**
+     * Packs the vertices of every data zone for the vector contains engine in Hilbert curve order, so zones
+     * near each other on the ground are allocated near each other in memory. Zones already packed are left
+     * as they are.
+     */
+    public void packAlongHilbertCurve() {
+        for (int id : getHilbertOrder()) {
+            zones[id].getPackedPolygon();
+        }
+    }
+
+    /**
+     * Returns the adjacency graph of the data zones, built from their shared edges on the first call and
+     * shared by every calculation over the store.
+     * @return ZoneAdjacency of the data zones.
+     */
+    @SuppressWarnings("try")
+    public synchronized ZoneAdjacency getAdjacency() {
+        if (adjacency == null) {
+            try (RunMetrics.Timer timer = RunMetrics.time("buildAdjacency")) {
+                adjacency = new ZoneAdjacency(this);
+            }
+        }
+        return adjacency;
+    }
+
+    /**
+     * Returns the bounding box index over the data zones, item ids are zone ids.
+     * @return Index over the data zone bounding boxes.
+     */
+    public SpatialIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the 2020 population column.
+     * @return Array of 2020 populations indexed by zone id.
+     */
+    public int[] getPopulation2020() {
+        return population2020;
+    }
+
+    /**
+     * Returns the 2016 population column.
+     * @return Array of 2016 populations indexed by zone id.
+     */
+    public int[] getPopulation2016() {
+        return population2016;
+    }
+
+    /**
+     * Returns the 2020 geographical access score column.
+     * @return Array of 2020 geographical access scores indexed by zone id.
+     */
+    public int[] getGeoAccessDomain2020() {
+        return geoAccessDomain2020;
+    }
+
+    /**
+     * Returns the 2016 geographical access score column.
+     * @return Array of 2016 geographical access scores indexed by zone id.
+     */
+    public int[] getGeoAccessDomain2016() {
+        return geoAccessDomain2016;
+    }
+
+    /**
+     * Returns the 2020 geographical access rank column.
+     * @return Array of 2020 geographical access ranks indexed by zone id.
+     */
+    public int[] getGeoAccess2020Rank() {
+        return geoAccess2020Rank;
+    }
+}
@@ -1,268 +1,622 @@
 package example;
 
 // Imports
+import org.apache.lucene.geo.Polygon;
+
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ExportFiles {
 
-    private HashMap<String, Double> durationsMap;
-    private HashMap<Integer,Integer> pop2020;
-    private HashMap<Integer,Integer> pop2016;
-    private HashMap<String,Integer> geo2020;
-    private HashMap<String,Integer> geo2016;
-    private HashMap<String,Integer> geo2020Rank;
+    // Folder containing the Inbound Analysis and Outbound Analysis output folders
+    public static final String OUTPUT_DIRECTORY = "/Users/callumross/Documents/MSc Project/Project/Data/" +
+            "Census Module Output";
+    // Largest all-locations FlatGeobuf layer written with a spatial index, which holds about 130 bytes per
+    // location while it is built. Larger layers are streamed without an index to keep memory bounded.
+    private static final int INDEXED_LOCATIONS_LIMIT = 1 << 20;
+
+    private DataZoneStore dataZones;
+    private double[] durations;
+    private int bin;
+    private long[] pop2020;
+    private long[] pop2016;
 
     private Timestamp timeStamp;
     private File fileDestination;
     private double[] startingPoint;
-    private ArrayList<double[]> allLocations;
+    private PopulationCalculation calculation;
     private ArrayList<double[]> locations;
+    // Ids of the data zones reached, in the order their rows are written
+    private int[] zones;
+    // Index into locations of the location used for each zone in zones
+    private int[] zoneLocations;
 
 
     /**
-     * Writes files needed for visualisations in QGIS to chosen directory 
-     * @param durationsMap HashMap containing SIMD data zones and travel times
-     * @param pop2020 HashMap containing travel time intervals and 2020 SIMD population
-     * @param pop2016 HashMap containing travel time intervals and 2016 SIMD population
-     * @param geo2020 HashMap containing SIMD data zone and 2020 SIMD geographical access score
-     * @param geo2016 HashMap containing SIMD data zone and 2016 SIMD geographical access score
-     * @param geo2020Rank HashMap containing SIMD data zone and 2020 SIMD geographical access rank
+     * Format of the files holding locations and data zones. The population of each travel time interval is
+     * always written as CSV.
+     */
+    public enum Format {
+        /** CSV files of coordinates, and of data zone names to be joined to the zone boundaries in QGIS. */
+        CSV,
+        /**
+         * FlatGeobuf files of the data zone boundaries with their attributes and of the locations as points. The
+         * spatial index of the all-locations layer holds about 130 bytes per location while it is written, so
+         * above about a million locations the layer is written without an index in constant memory, and QGIS
+         * reads the whole file instead of only the features in view.
+         */
+        FLATGEOBUF
+    }
+
+    /**
+     * Writes files needed for visualisations in QGIS to chosen directory
+     * @param calculation PopulationCalculation which has been performed, zone rows are written from its zone ids
+     *                    and zone names are only resolved as each row is written
      * @param inOut Boolean variable determining if inbound or outbound analysis has been performed
      * @param startingPoint double array containing coordinates of starting point
-     * @param allLocations ArrayList containing coordinates of all locations produced by reachability analysis
-     * @param locations ArrayList containing coordinates of location used in population calculations
+     * @throws IOException If any of the files cannot be written
+     */
+    public ExportFiles(PopulationCalculation calculation, boolean inOut, double[] startingPoint) throws IOException {
+
+        this.timeStamp = new Timestamp(System.currentTimeMillis());
+        analysis(inOut);
+        export(calculation, startingPoint, false, Format.CSV);
+    }
+
+    /**
+     * Writes files needed for visualisations in QGIS to the given folder, which is created if needed.
+     * Used when several analyses are exported at the same time and cannot share a timestamped folder.
+     * @param calculation PopulationCalculation which has been performed
+     * @param startingPoint double array containing coordinates of starting point
+     * @param fileDestination Folder to write the files to
+     * @throws IOException If any of the files cannot be written
      */
-    public ExportFiles(HashMap<String, Double> durationsMap,HashMap<Integer,Integer> pop2020,
-                       HashMap<Integer, Integer> pop2016, HashMap<String,Integer> geo2020 ,
-                       HashMap<String,Integer> geo2016, HashMap<String,Integer> geo2020Rank,
-                       boolean inOut, double[] startingPoint, ArrayList<double[]> allLocations,
-                       ArrayList<double[]> locations){
+    public ExportFiles(PopulationCalculation calculation, double[] startingPoint, File fileDestination)
+            throws IOException {
+        this(calculation, startingPoint, fileDestination, false);
+    }
+
+    /**
+     * Writes files needed for visualisations in QGIS to the given folder, which is created if needed.
+     * @param calculation PopulationCalculation which has been performed
+     * @param startingPoint double array containing coordinates of starting point
+     * @param fileDestination Folder to write the files to
+     * @param sorted Whether data zone rows, and the locations used for them, are written in order of data zone
+     *               name rather than the order the zones were loaded in. All locations are always written in
+     *               the order of the analysis.
+     * @throws IOException If any of the files cannot be written
+     */
+    public ExportFiles(PopulationCalculation calculation, double[] startingPoint, File fileDestination,
+                       boolean sorted) throws IOException {
+        this(calculation, startingPoint, fileDestination, sorted, Format.CSV);
+    }
+
+    /**
+     * Writes files needed for visualisations in QGIS to the given folder in the given format.
+     * @param calculation PopulationCalculation which has been performed
+     * @param startingPoint double array containing coordinates of starting point
+     * @param fileDestination Folder to write the files to
+     * @param sorted Whether CSV data zone rows are written in order of data zone name, FlatGeobuf features are
+     *               always written in the order of their spatial index
+     * @param format Format of the location and data zone files
+     * @throws IOException If any of the files cannot be written
+     */
+    public ExportFiles(PopulationCalculation calculation, double[] startingPoint, File fileDestination,
+                       boolean sorted, Format format) throws IOException {
 
         this.timeStamp = new Timestamp(System.currentTimeMillis());
-        this.durationsMap = durationsMap;
+        this.fileDestination = fileDestination;
+        fileDestination.mkdirs();
+        export(calculation, startingPoint, sorted, format);
+    }
+
+    // Method takes the results from the calculation and writes every file, each file on its own thread as
+    // they are independent. Every file is attempted and the first failure is thrown once all have finished.
+    @SuppressWarnings("try")
+    private void export(PopulationCalculation calculation, double[] startingPoint, boolean sorted, Format format)
+            throws IOException {
+        try (RunMetrics.Timer timer = RunMetrics.time("export")) {
+            writeFiles(calculation, startingPoint, sorted, format);
+        }
+    }
+
+    // Writes every file concurrently, see export
+    private void writeFiles(PopulationCalculation calculation, double[] startingPoint, boolean sorted,
+                            Format format) throws IOException {
+        this.dataZones = calculation.getDataZoneStore();
+        this.durations = calculation.getZoneDurations();
         this.startingPoint = startingPoint;
-        this.allLocations = allLocations;
-        this.locations = locations;
-        this.pop2020 = pop2020;
-        this.pop2016 = pop2016;
-        this.geo2020 = geo2020;
-        this.geo2016 = geo2016;
-        this.geo2020Rank = geo2020Rank;
+        this.calculation = calculation;
+        this.locations = calculation.getCheckJourneys();
+        this.bin = calculation.getBin();
+        this.pop2020 = calculation.getPopulation2020Bins();
+        this.pop2016 = calculation.getPopulation2016Bins();
+        orderZones(sorted);
 
-        analysis(inOut);
-        exportDurations();
-        exportSP();
-        exportAllLocations();
-        exportLocations();
-        export2020Population();
-        export2016Population();
-        export2020GeoAccessDomain();
-        export2016GeoAccessDomain();
-        export2020GeoAccessDomainRank();
+        ArrayList<Callable<Void>> files = new ArrayList<>();
+        if (format == Format.FLATGEOBUF) {
+            files.add(() -> { exportDataZonesFlatGeobuf(); return null; });
+            files.add(() -> { exportSPFlatGeobuf(); return null; });
+            files.add(() -> { exportAllLocationsFlatGeobuf(); return null; });
+            files.add(() -> { exportLocationsFlatGeobuf(); return null; });
+            files.add(() -> { exportIsochronesFlatGeobuf(); return null; });
+        } else {
+            files.add(() -> { exportDurations(); return null; });
+            files.add(() -> { exportSP(); return null; });
+            files.add(() -> { exportAllLocations(); return null; });
+            files.add(() -> { exportLocations(); return null; });
+            files.add(() -> { export2020GeoAccessDomain(); return null; });
+            files.add(() -> { export2016GeoAccessDomain(); return null; });
+            files.add(() -> { export2020GeoAccessDomainRank(); return null; });
+            files.add(() -> { exportIsochrones(); return null; });
+        }
+        files.add(() -> { export2020Population(); return null; });
+        files.add(() -> { export2016Population(); return null; });
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            IOException failure = null;
+            for (Future<Void> file : executor.invokeAll(files)) {
+                try {
+                    file.get();
+                } catch (ExecutionException e) {
+                    IOException cause = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            RunMetrics.count("filesWritten", files.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing files to " + fileDestination, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Lists the data zones reached, in zone id order or sorted by name, along with their used location
+    private void orderZones(boolean sorted){
+        Integer[] order = new Integer[locations.size()];
+        int[] reached = new int[locations.size()];
+        int count = 0;
+        for(int zone = 0; zone < durations.length; zone++){
+            if(!Double.isNaN(durations[zone])){
+                order[count] = count;
+                reached[count++] = zone;
+            }
+        }
+        if (sorted) {
+            Arrays.sort(order, Comparator.comparing(i -> dataZones.getName(reached[i])));
+        }
+        this.zones = new int[count];
+        this.zoneLocations = new int[count];
+        for (int i = 0; i < count; i++) {
+            zones[i] = reached[order[i]];
+            zoneLocations[i] = order[i];
+        }
     }
 
     // Method determines folder directory and creates new folder with current time Timestamp
     private void analysis(boolean inOut){
+        fileDestination = getTimestampedDestination(inOut, timeStamp);
+        fileDestination.mkdir();
+    }
+
+    /**
+     * Returns the timestamped folder the files of an analysis are written to when no folder is given.
+     * @param inOut Boolean variable determining if inbound or outbound analysis has been performed
+     * @param timeStamp Time the analysis is exported
+     * @return Folder for the files
+     */
+    public static File getTimestampedDestination(boolean inOut, Timestamp timeStamp){
         if(inOut){
-           fileDestination = new File("/Users/callumross/Documents/MSc Project/Project/Data/Census Module Output" +
-                    "/Inbound Analysis/" + timeStamp);
+            return new File(OUTPUT_DIRECTORY + "/Inbound Analysis/" + timeStamp);
         } else {
-            fileDestination = new File("/Users/callumross/Documents/MSc Project/Project/Data/Census Module Output" +
-                    "/Outbound Analysis/" + timeStamp);
+            return new File(OUTPUT_DIRECTORY + "/Outbound Analysis/" + timeStamp);
         }
-        fileDestination.mkdir();
+    }
+
+    /**
+     * Returns the folder the files have been written to.
+     * @return Folder containing the files
+     */
+    public File getFileDestination(){
+        return fileDestination;
     }
 
     // Method writes file to folder containing SIMD DataZone and corresponding travel time from analysis
-    private void exportDurations(){
+    private void exportDurations() throws IOException {
         String fileName = " Analysis_DataZones" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination
-                + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"DataZone\"");
-            sb.append(',');
-            sb.append("\"Duration\"");
-            sb.append('\n');
-            for(Map.Entry<String, Double> entry : durationsMap.entrySet()){
-                sb.append(entry.getKey());
-                sb.append(',');
-                sb.append(entry.getValue());
-                sb.append('\n');
+        try (CsvWriter writer = new CsvWriter(new File(fileDestination, fileName))) {
+            writer.write("\"DataZone\"");
+            writer.write(',');
+            writer.write("\"Duration\"");
+            writer.write('\n');
+            for(int zone : zones){
+                writer.write(dataZones.getName(zone));
+                writer.write(',');
+                writer.write(durations[zone]);
+                writer.write('\n');
             }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
         }
     }
 
     // Method writes file to folder containing starting point from analysis
-    private void exportSP(){
+    private void exportSP() throws IOException {
         String fileName = " Analysis_StartingPoint" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Staring Point Latitude\"");
-            sb.append(",");
-            sb.append("\"Staring Point Longitude\"");
-            sb.append('\n');
-            sb.append(this.startingPoint[0]);
-            sb.append(',');
-            sb.append(this.startingPoint[1]);
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
+        try (CsvWriter writer = new CsvWriter(new File(fileDestination, fileName))) {
+            writer.write("\"Staring Point Latitude\"");
+            writer.write(',');
+            writer.write("\"Staring Point Longitude\"");
+            writer.write('\n');
+            writer.write(this.startingPoint[0]);
+            writer.write(',');
+            writer.write(this.startingPoint[1]);
         }
     }
 
-    // Method write file to folder containing coordinates of all allLocations from analysis
-    private void exportAllLocations(){
+    // Method write file to folder containing coordinates of all locations from analysis.
+    // Rows are written as each location is visited so the locations are never all held in memory.
+    private void exportAllLocations() throws IOException {
         String fileName = " Analysis_All_Locations" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Location Latitude\"");
-            sb.append(",");
-            sb.append("\"Location Longitude\"");
-            sb.append('\n');
-            for(double[] d: allLocations){
-                sb.append(d[0]);
-                sb.append(",");
-                sb.append(d[1]);
-                sb.append('\n');
-            }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
+        try (CsvWriter writer = new CsvWriter(new File(fileDestination, fileName))) {
+            writer.write("\"Location Latitude\"");
+            writer.write(',');
+            writer.write("\"Location Longitude\"");
+            writer.write('\n');
+            calculation.forEachLocation((lat, lon) -> {
+                writer.write(lat);
+                writer.write(',');
+                writer.write(lon);
+                writer.write('\n');
+            });
         }
     }
 
     // Writes file containing locations used in population calculation
-    private void exportLocations(){
+    private void exportLocations() throws IOException {
         String fileName = " Analysis_Locations" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Location Latitude\"");
-            sb.append(",");
-            sb.append("\"Location Longitude\"");
-            sb.append('\n');
-            for(double[] d: locations){
-                sb.append(d[0]);
-                sb.append(",");
-                sb.append(d[1]);
-                sb.append('\n');
+        try (CsvWriter writer = new CsvWriter(new File(fileDestination, fileName))) {
+            writer.write("\"Location Latitude\"");
+            writer.write(',');
+            writer.write("\"Location Longitude\"");
+            writer.write('\n');
+            for(int location : zoneLocations){
+                double[] d = locations.get(location);
+                writer.write(d[0]);
+                writer.write(',');
+                writer.write(d[1]);
+                writer.write('\n');
             }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
         }
     }
 
     // Method writes 2020 population for each time interval
-    private void export2020Population(){
-        String fileName = " Analysis_2020Population" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Travel Interval\"");
-            sb.append(",");
-            sb.append("\"2020 Population\"");
-            sb.append('\n');
-            for(Map.Entry<Integer, Integer> entry : this.pop2020.entrySet()){
-                sb.append(entry.getKey());
-                sb.append(',');
-                sb.append(entry.getValue());
-                sb.append('\n');
+    private void export2020Population() throws IOException {
+        exportPopulation(" Analysis_2020Population", "\"2020 Population\"", this.pop2020);
+    }
+
+    // Method writes 2016 population for each time interval
+    private void export2016Population() throws IOException {
+        exportPopulation(" Analysis_2016Population", "\"2016 Population\"", this.pop2016);
+    }
+
+    // Writes the population of each travel time interval, keyed by the end of the interval
+    private void exportPopulation(String name, String header, long[] population) throws IOException {
+        String fileName = name + ".csv";
+        try (CsvWriter writer = new CsvWriter(new File(fileDestination, fileName))) {
+            writer.write("\"Travel Interval\"");
+            writer.write(',');
+            writer.write(header);
+            writer.write('\n');
+            for(int i = 0; i < population.length; i++){
+                writer.write((long) (i + 1) * bin);
+                writer.write(',');
+                writer.write(population[i]);
+                writer.write('\n');
             }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
         }
     }
 
-    // Method writes 2016 population for each time interval
-    private void export2016Population(){
-        String fileName = " Analysis_2016Population" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Travel Interval\"");
-            sb.append(",");
-            sb.append("\"2016 Population\"");
-            sb.append('\n');
-            for(Map.Entry<Integer, Integer> entry : this.pop2016.entrySet()){
-                sb.append(entry.getKey());
-                sb.append(',');
-                sb.append(entry.getValue());
-                sb.append('\n');
+    // Method writes 2020 geographical access score for each data zone reached
+    private void export2020GeoAccessDomain() throws IOException {
+        exportZoneColumn(" Analysis_2020GeoAccess", "\"2020_Geographic_Access_Domain\"",
+                dataZones.getGeoAccessDomain2020());
+    }
+
+    // Method writes 2016 geographical access score for each data zone reached
+    private void export2016GeoAccessDomain() throws IOException {
+        exportZoneColumn(" Analysis_2016GeoAccess", "\"2016_Geographic_Access_Domain\"",
+                dataZones.getGeoAccessDomain2016());
+    }
+
+    // Method writes 2020 geographical access rank for each data zone reached
+    private void export2020GeoAccessDomainRank() throws IOException {
+        exportZoneColumn(" Analysis_2020GeoAccess_Domain_Rank", "\"2020_GeoAccess_Domain_Rank\"",
+                dataZones.getGeoAccess2020Rank());
+    }
+
+    // Writes the name and column value of every data zone reached, resolving names from zone ids as rows are written
+    private void exportZoneColumn(String name, String header, int[] column) throws IOException {
+        String fileName = name + ".csv";
+        try (CsvWriter writer = new CsvWriter(new File(fileDestination, fileName))) {
+            writer.write("\"Data_Zone\"");
+            writer.write(',');
+            writer.write(header);
+            writer.write('\n');
+            for(int zone : zones){
+                writer.write(dataZones.getName(zone));
+                writer.write(',');
+                writer.write(column[zone]);
+                writer.write('\n');
             }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
         }
     }
 
-    // Method writes 2016 population for each time interval
-    private void export2020GeoAccessDomain(){
-        String fileName = " Analysis_2020GeoAccess" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Data_Zone\"");
-            sb.append(",");
-            sb.append("\"2020_Geographic_Access_Domain\"");
-            sb.append('\n');
-            for(Map.Entry<String, Integer> entry : this.geo2020.entrySet()){
-                sb.append(entry.getKey());
-                sb.append(',');
-                sb.append(entry.getValue());
-                sb.append('\n');
+    // Dissolves the data zones reached within each travel time interval or under into their outer boundary,
+    // one entry per interval
+    private Polygon[][] dissolveIsochrones() {
+        ZoneAdjacency adjacency = dataZones.getAdjacency();
+        boolean[] reached = new boolean[durations.length];
+        Polygon[][] isochrones = new Polygon[pop2020.length][];
+        for (int i = 0; i < isochrones.length; i++) {
+            for (int zone : zones) {
+                reached[zone] = durations[zone] <= (long) (i + 1) * bin;
             }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
+            isochrones[i] = adjacency.dissolve(reached);
         }
+        return isochrones;
     }
 
-    // Method writes 2016 population for each time interval
-    private void export2016GeoAccessDomain(){
-        String fileName = " Analysis_2016GeoAccess" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Data_Zone\"");
-            sb.append(",");
-            sb.append("\"2016_Geographic_Access_Domain\"");
-            sb.append('\n');
-            for(Map.Entry<String, Integer> entry : this.geo2016.entrySet()){
-                sb.append(entry.getKey());
-                sb.append(',');
-                sb.append(entry.getValue());
-                sb.append('\n');
+    // Writes the dissolved boundary of the data zones reached within each travel time interval or under as WKT,
+    // with the populations able to make the journey in that time
+    private void exportIsochrones() throws IOException {
+        Polygon[][] isochrones = dissolveIsochrones();
+        long[] cumulative2020 = calculation.getCumulativePopulation2020();
+        long[] cumulative2016 = calculation.getCumulativePopulation2016();
+        String fileName = " Analysis_Isochrones" + ".csv";
+        try (CsvWriter writer = new CsvWriter(new File(fileDestination, fileName))) {
+            writer.write("\"Travel Interval\"");
+            writer.write(',');
+            writer.write("\"2020 Population\"");
+            writer.write(',');
+            writer.write("\"2016 Population\"");
+            writer.write(',');
+            writer.write("\"WKT\"");
+            writer.write('\n');
+            for (int i = 0; i < isochrones.length; i++) {
+                writer.write((long) (i + 1) * bin);
+                writer.write(',');
+                writer.write(cumulative2020[i]);
+                writer.write(',');
+                writer.write(cumulative2016[i]);
+                writer.write(',');
+                writer.write('"');
+                writeMultiPolygon(writer, isochrones[i]);
+                writer.write('"');
+                writer.write('\n');
             }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
         }
     }
 
-    // Method writes 2016 population for each time interval
-    private void export2020GeoAccessDomainRank(){
-        String fileName = " Analysis_2020GeoAccess_Domain_Rank" + ".csv";
-        try (PrintWriter writer = new PrintWriter(new File(fileDestination + "/" + fileName))) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\"Data_Zone\"");
-            sb.append(",");
-            sb.append("\"2020_GeoAccess_Domain_Rank\"");
-            sb.append('\n');
-            for(Map.Entry<String, Integer> entry : this.geo2020Rank.entrySet()){
-                sb.append(entry.getKey());
-                sb.append(',');
-                sb.append(entry.getValue());
-                sb.append('\n');
+    // Writes polygons as a WKT MULTIPOLYGON, x being longitude and y latitude
+    private static void writeMultiPolygon(CsvWriter writer, Polygon[] polygons) throws IOException {
+        if (polygons.length == 0) {
+            writer.write("MULTIPOLYGON EMPTY");
+            return;
+        }
+        writer.write("MULTIPOLYGON (");
+        for (int p = 0; p < polygons.length; p++) {
+            writer.write(p == 0 ? "(" : ", (");
+            writeRing(writer, polygons[p]);
+            for (Polygon hole : polygons[p].getHoles()) {
+                writer.write(", ");
+                writeRing(writer, hole);
+            }
+            writer.write(')');
+        }
+        writer.write(')');
+    }
+
+    // Writes the coordinates of a ring in WKT
+    private static void writeRing(CsvWriter writer, Polygon ring) throws IOException {
+        double[] lats = ring.getPolyLats();
+        double[] lons = ring.getPolyLons();
+        writer.write('(');
+        for (int i = 0; i < lats.length; i++) {
+            if (i > 0) {
+                writer.write(", ");
+            }
+            writer.write(lons[i]);
+            writer.write(' ');
+            writer.write(lats[i]);
+        }
+        writer.write(')');
+    }
+
+    // Writes the dissolved boundary of the data zones reached within each travel time interval or under as a
+    // polygon layer, with the populations able to make the journey in that time. Intervals reaching no zone
+    // are left out.
+    private void exportIsochronesFlatGeobuf() throws IOException {
+        Polygon[][] dissolved = dissolveIsochrones();
+        long[] cumulative2020 = calculation.getCumulativePopulation2020();
+        long[] cumulative2016 = calculation.getCumulativePopulation2016();
+        int[] intervals = new int[dissolved.length];
+        int count = 0;
+        for (int i = 0; i < dissolved.length; i++) {
+            if (dissolved[i].length > 0) {
+                intervals[count++] = i;
+            }
+        }
+        int features = count;
+        FlatGeobufWriter writer = new FlatGeobufWriter("Isochrones", FlatGeobufWriter.MULTI_POLYGON);
+        writer.addColumn("Travel_Interval", FlatGeobufWriter.INT);
+        writer.addColumn("2020_Population", FlatGeobufWriter.LONG);
+        writer.addColumn("2016_Population", FlatGeobufWriter.LONG);
+        writer.write(new File(fileDestination, " Analysis_Isochrones.fgb"), new FlatGeobufWriter.Features() {
+            @Override
+            public int size() {
+                return features;
+            }
+
+            @Override
+            public void getBounds(int feature, double[] bounds) {
+                bounds[0] = bounds[1] = Double.POSITIVE_INFINITY;
+                bounds[2] = bounds[3] = Double.NEGATIVE_INFINITY;
+                for (Polygon polygon : dissolved[intervals[feature]]) {
+                    bounds[0] = Math.min(bounds[0], polygon.minLon);
+                    bounds[1] = Math.min(bounds[1], polygon.minLat);
+                    bounds[2] = Math.max(bounds[2], polygon.maxLon);
+                    bounds[3] = Math.max(bounds[3], polygon.maxLat);
+                }
+            }
+
+            @Override
+            public int buildGeometry(int feature, FlatBufferBuilder builder) {
+                return FlatGeobufWriter.multiPolygon(builder, dissolved[intervals[feature]]);
             }
-            writer.write(sb.toString());
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
+
+            @Override
+            public void addProperties(int feature, FlatGeobufWriter.Properties properties) {
+                int interval = intervals[feature];
+                properties.addInt(0, (interval + 1) * bin);
+                properties.addLong(1, cumulative2020[interval]);
+                properties.addLong(2, cumulative2016[interval]);
+            }
+        });
+    }
+
+    // Writes the data zones reached as polygons with their travel time, populations and geographical access
+    private void exportDataZonesFlatGeobuf() throws IOException {
+        FlatGeobufWriter writer = new FlatGeobufWriter("DataZones", FlatGeobufWriter.MULTI_POLYGON);
+        writer.addColumn("DataZone", FlatGeobufWriter.STRING);
+        writer.addColumn("Duration", FlatGeobufWriter.DOUBLE);
+        writer.addColumn("2020_Population", FlatGeobufWriter.INT);
+        writer.addColumn("2016_Population", FlatGeobufWriter.INT);
+        writer.addColumn("2020_Geographic_Access_Domain", FlatGeobufWriter.INT);
+        writer.addColumn("2016_Geographic_Access_Domain", FlatGeobufWriter.INT);
+        writer.addColumn("2020_GeoAccess_Domain_Rank", FlatGeobufWriter.INT);
+        writer.write(new File(fileDestination, " Analysis_DataZones.fgb"), new FlatGeobufWriter.Features() {
+            @Override
+            public int size() {
+                return zones.length;
+            }
+
+            @Override
+            public void getBounds(int feature, double[] bounds) {
+                DataZone dataZone = dataZones.getZone(zones[feature]);
+                bounds[0] = dataZone.getMinLongitude();
+                bounds[1] = dataZone.getMinLatitude();
+                bounds[2] = dataZone.getMaxLongitude();
+                bounds[3] = dataZone.getMaxLatitude();
+            }
+
+            @Override
+            public int buildGeometry(int feature, FlatBufferBuilder builder) {
+                return FlatGeobufWriter.multiPolygon(builder, dataZones.getZone(zones[feature]).getPolygons());
+            }
+
+            @Override
+            public void addProperties(int feature, FlatGeobufWriter.Properties properties) {
+                int zone = zones[feature];
+                properties.addString(0, dataZones.getName(zone));
+                properties.addDouble(1, durations[zone]);
+                properties.addInt(2, dataZones.getPopulation2020()[zone]);
+                properties.addInt(3, dataZones.getPopulation2016()[zone]);
+                properties.addInt(4, dataZones.getGeoAccessDomain2020()[zone]);
+                properties.addInt(5, dataZones.getGeoAccessDomain2016()[zone]);
+                properties.addInt(6, dataZones.getGeoAccess2020Rank()[zone]);
+            }
+        });
+    }
+
+    // Writes the starting point as a point layer
+    private void exportSPFlatGeobuf() throws IOException {
+        exportPointsFlatGeobuf(" Analysis_StartingPoint.fgb", "StartingPoint",
+                new double[]{startingPoint[0]}, new double[]{startingPoint[1]}, false);
+    }
+
+    // Writes every location from the analysis as a point layer. The coordinates are held in arrays while the
+    // index is built, which needs every point before any is written, so large layers are streamed unindexed.
+    private void exportAllLocationsFlatGeobuf() throws IOException {
+        int count = calculation.getJourneyCount();
+        if (count > INDEXED_LOCATIONS_LIMIT) {
+            new FlatGeobufWriter("AllLocations", FlatGeobufWriter.POINT).writePoints(
+                    new File(fileDestination, " Analysis_All_Locations.fgb"), count, calculation::forEachLocation);
+            return;
+        }
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        int[] visited = new int[1];
+        calculation.forEachLocation((lat, lon) -> {
+            lats[visited[0]] = lat;
+            lons[visited[0]] = lon;
+            visited[0]++;
+        });
+        exportPointsFlatGeobuf(" Analysis_All_Locations.fgb", "AllLocations", lats, lons, false);
+    }
+
+    // Writes the location used for each data zone reached as a point layer with the zone and its travel time
+    private void exportLocationsFlatGeobuf() throws IOException {
+        double[] lats = new double[zones.length];
+        double[] lons = new double[zones.length];
+        for (int i = 0; i < zones.length; i++) {
+            double[] location = locations.get(zoneLocations[i]);
+            lats[i] = location[0];
+            lons[i] = location[1];
+        }
+        exportPointsFlatGeobuf(" Analysis_Locations.fgb", "Locations", lats, lons, true);
+    }
+
+    // Writes a point layer, with the name and travel time of zones[i] for point i when zoneAttributes is set
+    private void exportPointsFlatGeobuf(String fileName, String layer, double[] lats, double[] lons,
+                                        boolean zoneAttributes) throws IOException {
+        FlatGeobufWriter writer = new FlatGeobufWriter(layer, FlatGeobufWriter.POINT);
+        if (zoneAttributes) {
+            writer.addColumn("DataZone", FlatGeobufWriter.STRING);
+            writer.addColumn("Duration", FlatGeobufWriter.DOUBLE);
         }
+        writer.write(new File(fileDestination, fileName), new FlatGeobufWriter.Features() {
+            @Override
+            public int size() {
+                return lats.length;
+            }
+
+            @Override
+            public void getBounds(int feature, double[] bounds) {
+                bounds[0] = bounds[2] = lons[feature];
+                bounds[1] = bounds[3] = lats[feature];
+            }
+
+            @Override
+            public int buildGeometry(int feature, FlatBufferBuilder builder) {
+                return FlatGeobufWriter.point(builder, lons[feature], lats[feature]);
+            }
+
+            @Override
+            public void addProperties(int feature, FlatGeobufWriter.Properties properties) {
+                if (zoneAttributes) {
+                    properties.addString(0, dataZones.getName(zones[feature]));
+                    properties.addDouble(1, durations[zones[feature]]);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,308 @@
+package example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal FlatBuffers encoder, enough to write FlatGeobuf headers and features without the FlatBuffers library.
+ * As with the official builders the buffer is filled from the back, children before their parents, so every
+ * offset points forwards. Objects are identified by their distance from the end of the buffer, as returned by
+ * the create and end methods.
+ */
+public class FlatBufferBuilder {
+
+    private byte[] buffer;
+    // Index of the first byte in use, bytes are written below it
+    private int space;
+    private int minAlign = 1;
+    private int[] vtable = new int[16];
+    private int vtableSize;
+    private int objectStart;
+    private int vectorLength;
+
+    /**
+     * Creates an empty builder.
+     * @param capacity - Initial size of the buffer in bytes, it grows as needed.
+     */
+    public FlatBufferBuilder(int capacity) {
+        this.buffer = new byte[Math.max(capacity, 16)];
+        this.space = buffer.length;
+    }
+
+    /**
+     * Empties the builder, keeping its buffer for reuse.
+     */
+    public void clear() {
+        space = buffer.length;
+        minAlign = 1;
+        vtableSize = 0;
+    }
+
+    /**
+     * Returns the position of the last object written, counted back from the end of the buffer.
+     * @return Offset of the object.
+     */
+    public int offset() {
+        return buffer.length - space;
+    }
+
+    /**
+     * Writes a UTF-8 string.
+     * @param value - String to write.
+     * @return Offset of the string.
+     */
+    public int createString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        prep(1, 0);
+        putByte((byte) 0);
+        startVector(1, bytes.length, 1);
+        space -= bytes.length;
+        System.arraycopy(bytes, 0, buffer, space, bytes.length);
+        return endVector();
+    }
+
+    /**
+     * Writes a vector of bytes.
+     * @param values - Array holding the bytes.
+     * @param length - Number of bytes, the first length elements of the array are written.
+     * @return Offset of the vector.
+     */
+    public int createByteVector(byte[] values, int length) {
+        startVector(1, length, 1);
+        space -= length;
+        System.arraycopy(values, 0, buffer, space, length);
+        return endVector();
+    }
+
+    /**
+     * Writes a vector of doubles.
+     * @param values - Array holding the doubles.
+     * @param from - Index of the first double written.
+     * @param to - Index after the last double written.
+     * @return Offset of the vector.
+     */
+    public int createDoubleVector(double[] values, int from, int to) {
+        startVector(8, to - from, 8);
+        for (int i = to - 1; i >= from; i--) {
+            putLong(Double.doubleToRawLongBits(values[i]));
+        }
+        return endVector();
+    }
+
+    /**
+     * Writes a vector of unsigned 32 bit integers.
+     * @param values - Array holding the values.
+     * @param length - Number of values, the first length elements of the array are written.
+     * @return Offset of the vector.
+     */
+    public int createIntVector(int[] values, int length) {
+        startVector(4, length, 4);
+        for (int i = length - 1; i >= 0; i--) {
+            putInt(values[i]);
+        }
+        return endVector();
+    }
+
+    /**
+     * Writes a vector of offsets to tables already written.
+     * @param offsets - Offsets of the tables.
+     * @param length - Number of offsets, the first length elements of the array are written.
+     * @return Offset of the vector.
+     */
+    public int createOffsetVector(int[] offsets, int length) {
+        startVector(4, length, 4);
+        for (int i = length - 1; i >= 0; i--) {
+            addOffset(offsets[i]);
+        }
+        return endVector();
+    }
+
+    /**
+     * Starts a table, its fields are added before calling endTable.
+     * @param fields - Number of fields in the table's schema.
+     */
+    public void startTable(int fields) {
+        if (vtable.length < fields) {
+            vtable = new int[fields];
+        }
+        Arrays.fill(vtable, 0, fields, 0);
+        vtableSize = fields;
+        objectStart = offset();
+    }
+
+    /**
+     * Adds a byte (ubyte, bool or enum) field to the current table.
+     * @param field - Index of the field in the schema.
+     * @param value - Value of the field.
+     */
+    public void addByte(int field, byte value) {
+        prep(1, 0);
+        putByte(value);
+        vtable[field] = offset();
+    }
+
+    /**
+     * Adds a 16 bit (short or ushort) field to the current table.
+     * @param field - Index of the field in the schema.
+     * @param value - Value of the field.
+     */
+    public void addShort(int field, short value) {
+        prep(2, 0);
+        putShort(value);
+        vtable[field] = offset();
+    }
+
+    /**
+     * Adds a 32 bit (int or uint) field to the current table.
+     * @param field - Index of the field in the schema.
+     * @param value - Value of the field.
+     */
+    public void addInt(int field, int value) {
+        prep(4, 0);
+        putInt(value);
+        vtable[field] = offset();
+    }
+
+    /**
+     * Adds a 64 bit (long or ulong) field to the current table.
+     * @param field - Index of the field in the schema.
+     * @param value - Value of the field.
+     */
+    public void addLong(int field, long value) {
+        prep(8, 0);
+        putLong(value);
+        vtable[field] = offset();
+    }
+
+    /**
+     * Adds a field referring to a string, vector or table already written to the current table.
+     * @param field - Index of the field in the schema.
+     * @param offset - Offset of the object referred to.
+     */
+    public void addOffset(int field, int offset) {
+        addOffset(offset);
+        vtable[field] = offset();
+    }
+
+    /**
+     * Ends the current table, writing its vtable in front of it.
+     * @return Offset of the table.
+     */
+    public int endTable() {
+        prep(4, 0);
+        putInt(0);
+        int objectOffset = offset();
+        int fields = vtableSize;
+        while (fields > 0 && vtable[fields - 1] == 0) {
+            fields--;
+        }
+        for (int i = fields - 1; i >= 0; i--) {
+            prep(2, 0);
+            putShort((short) (vtable[i] != 0 ? objectOffset - vtable[i] : 0));
+        }
+        prep(2, 0);
+        putShort((short) (objectOffset - objectStart));
+        prep(2, 0);
+        putShort((short) ((fields + 2) * 2));
+        // The table starts with the signed distance back from the table to its vtable
+        writeInt(buffer.length - objectOffset, offset() - objectOffset);
+        vtableSize = 0;
+        return objectOffset;
+    }
+
+    /**
+     * Completes the buffer with the given root table, preceded by its size as FlatGeobuf headers and
+     * features are. The finished buffer runs from start() to the end of getBuffer(), offset() bytes in all.
+     * @param root - Offset of the root table.
+     */
+    public void finishSizePrefixed(int root) {
+        prep(minAlign, 8);
+        addOffset(root);
+        prep(4, 0);
+        putInt(offset());
+    }
+
+    /**
+     * Returns the array holding the buffer, valid until more is written to the builder.
+     * @return Array holding the buffer.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the index in getBuffer() of the first byte written.
+     * @return Start of the buffer.
+     */
+    public int start() {
+        return space;
+    }
+
+    // Starts a vector, the elements are written in reverse order followed by endVector
+    private void startVector(int elementSize, int length, int alignment) {
+        vectorLength = length;
+        prep(4, elementSize * length);
+        prep(alignment, elementSize * length);
+    }
+
+    // Ends a vector by writing its length in front of it
+    private int endVector() {
+        prep(4, 0);
+        putInt(vectorLength);
+        return offset();
+    }
+
+    // Writes an offset to an object already written, relative to where the offset itself is stored
+    private void addOffset(int offset) {
+        prep(4, 0);
+        putInt(offset() - offset + 4);
+    }
+
+    // Pads so that after writing additional bytes the next value of the given size is aligned, growing the
+    // buffer when needed
+    private void prep(int size, int additional) {
+        if (size > minAlign) {
+            minAlign = size;
+        }
+        int alignSize = (-(buffer.length - space + additional)) & (size - 1);
+        while (space < alignSize + size + additional) {
+            int used = buffer.length - space;
+            byte[] grown = new byte[Math.max(buffer.length * 2, used + alignSize + size + additional)];
+            System.arraycopy(buffer, space, grown, grown.length - used, used);
+            space = grown.length - used;
+            buffer = grown;
+        }
+        for (int i = 0; i < alignSize; i++) {
+            buffer[--space] = 0;
+        }
+    }
+
+    private void putByte(byte value) {
+        buffer[--space] = value;
+    }
+
+    private void putShort(short value) {
+        space -= 2;
+        buffer[space] = (byte) value;
+        buffer[space + 1] = (byte) (value >> 8);
+    }
+
+    private void putInt(int value) {
+        space -= 4;
+        writeInt(space, value);
+    }
+
+    private void putLong(long value) {
+        space -= 8;
+        writeInt(space, (int) value);
+        writeInt(space + 4, (int) (value >>> 32));
+    }
+
+    // Writes a little endian int at an index of the buffer
+    private void writeInt(int index, int value) {
+        buffer[index] = (byte) value;
+        buffer[index + 1] = (byte) (value >> 8);
+        buffer[index + 2] = (byte) (value >> 16);
+        buffer[index + 3] = (byte) (value >> 24);
+    }
+}
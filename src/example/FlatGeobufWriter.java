@@ -0,0 +1,487 @@
+package example;
+
+import org.apache.lucene.geo.Polygon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Writes a layer of features to a FlatGeobuf file, which QGIS and GDAL read directly and can stream by bounding
+ * box through the packed Hilbert R-tree written in front of the features. Coordinates are longitude (x) and
+ * latitude (y) in EPSG:4326.
+ *
+ * The file holds the magic bytes, the size prefixed Header table, the index nodes and then each size prefixed
+ * Feature table, in the order of the index leaves. Features are encoded twice, once to find their sizes for
+ * the index and again when written, so memory does not grow with the size of the geometries. The index and the
+ * Hilbert sort hold about 110 bytes per feature, so writePoints streams large point layers without an index.
+ */
+public class FlatGeobufWriter {
+
+    /** Geometry type of a layer of points. */
+    public static final byte POINT = 1;
+    /** Geometry type of a single polygon, used for the parts of a multi polygon. */
+    public static final byte POLYGON = 3;
+    /** Geometry type of a layer of polygons with one or more parts. */
+    public static final byte MULTI_POLYGON = 6;
+    /** Column type of a signed 32 bit integer. */
+    public static final byte INT = 5;
+    /** Column type of a signed 64 bit integer. */
+    public static final byte LONG = 7;
+    /** Column type of a double. */
+    public static final byte DOUBLE = 10;
+    /** Column type of a UTF-8 string. */
+    public static final byte STRING = 11;
+    /** Number of children of each index node. */
+    public static final int NODE_SIZE = 16;
+
+    private static final byte[] MAGIC = {0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00};
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int NODE_BYTES = 40;
+
+    private String name;
+    private byte geometryType;
+    private ArrayList<String> columnNames = new ArrayList<>();
+    private ArrayList<Byte> columnTypes = new ArrayList<>();
+
+    /**
+     * Source of the features of a layer, each identified by its index.
+     */
+    public interface Features {
+
+        /**
+         * Returns the number of features.
+         * @return Number of features.
+         */
+        int size();
+
+        /**
+         * Stores the bounding box of a feature.
+         * @param feature - Index of the feature.
+         * @param bounds - Array to fill with the minimum x, minimum y, maximum x and maximum y.
+         */
+        void getBounds(int feature, double[] bounds);
+
+        /**
+         * Writes the Geometry table of a feature, for example with point or multiPolygon.
+         * @param feature - Index of the feature.
+         * @param builder - Builder to write the geometry to.
+         * @return Offset of the Geometry table.
+         */
+        int buildGeometry(int feature, FlatBufferBuilder builder);
+
+        /**
+         * Adds the attribute values of a feature, in column order.
+         * @param feature - Index of the feature.
+         * @param properties - Properties to add the values to.
+         */
+        void addProperties(int feature, Properties properties);
+    }
+
+    /**
+     * Source of the points of a layer written without an index.
+     */
+    public interface Points {
+
+        /**
+         * Passes every point to the visitor, in the order they are written.
+         * @param visitor - Receives the latitude and longitude of each point.
+         * @throws IOException If the points cannot be read or the visitor fails.
+         */
+        void forEach(PopulationCalculation.LocationVisitor visitor) throws IOException;
+    }
+
+    /**
+     * Attribute values of a feature, encoded as the column index followed by the little endian value.
+     */
+    public static class Properties {
+
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        /**
+         * Adds an INT column value.
+         * @param column - Index of the column.
+         * @param value - Value of the column.
+         */
+        public void addInt(int column, int value) {
+            addColumn(column, 4);
+            putLong(value, 4);
+        }
+
+        /**
+         * Adds a LONG column value.
+         * @param column - Index of the column.
+         * @param value - Value of the column.
+         */
+        public void addLong(int column, long value) {
+            addColumn(column, 8);
+            putLong(value, 8);
+        }
+
+        /**
+         * Adds a DOUBLE column value.
+         * @param column - Index of the column.
+         * @param value - Value of the column.
+         */
+        public void addDouble(int column, double value) {
+            addColumn(column, 8);
+            putLong(Double.doubleToRawLongBits(value), 8);
+        }
+
+        /**
+         * Adds a STRING column value.
+         * @param column - Index of the column.
+         * @param value - Value of the column.
+         */
+        public void addString(int column, String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            addColumn(column, 4 + utf8.length);
+            putLong(utf8.length, 4);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        // Writes the column index, making room for it and a value of the given length
+        private void addColumn(int column, int length) {
+            if (size + 2 + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + 2 + length));
+            }
+            putLong(column, 2);
+        }
+
+        // Writes the low length bytes of the value in little endian order
+        private void putLong(long value, int length) {
+            for (int i = 0; i < length; i++) {
+                bytes[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+    }
+
+    /**
+     * Creates a writer for a layer, columns are added before writing.
+     * @param name - Name of the layer.
+     * @param geometryType - Geometry type of every feature, POINT or MULTI_POLYGON.
+     */
+    public FlatGeobufWriter(String name, byte geometryType) {
+        this.name = name;
+        this.geometryType = geometryType;
+    }
+
+    /**
+     * Adds an attribute column, features add their values by the index of the column.
+     * @param name - Name of the column.
+     * @param type - Type of the column: INT, LONG, DOUBLE or STRING.
+     */
+    public void addColumn(String name, byte type) {
+        columnNames.add(name);
+        columnTypes.add(type);
+    }
+
+    /**
+     * Writes the layer to a file.
+     * @param file - File to write.
+     * @param features - Features of the layer.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(File file, Features features) throws IOException {
+        int count = features.size();
+        double[] boxes = new double[count * 4];
+        double[] extent = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        double[] bounds = new double[4];
+        double[] centreXs = new double[count];
+        double[] centreYs = new double[count];
+        for (int feature = 0; feature < count; feature++) {
+            features.getBounds(feature, bounds);
+            System.arraycopy(bounds, 0, boxes, feature * 4, 4);
+            extent[0] = Math.min(extent[0], bounds[0]);
+            extent[1] = Math.min(extent[1], bounds[1]);
+            extent[2] = Math.max(extent[2], bounds[2]);
+            extent[3] = Math.max(extent[3], bounds[3]);
+            centreXs[feature] = (bounds[0] + bounds[2]) / 2;
+            centreYs[feature] = (bounds[1] + bounds[3]) / 2;
+        }
+        int[] order = HilbertCurve.sort(centreXs, centreYs, count);
+
+        // Byte offset of each feature from the start of the features, in index order
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        Properties properties = new Properties();
+        long[] featureOffsets = new long[count];
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            featureOffsets[i] = offset;
+            buildFeature(features, order[i], builder, properties);
+            offset += builder.offset();
+        }
+
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(MAGIC);
+            buildHeader(builder, count, extent, count > 0 ? NODE_SIZE : 0);
+            put(channel, buffer, builder);
+            if (count > 0) {
+                writeIndex(channel, buffer, boxes, order, featureOffsets);
+            }
+            for (int i = 0; i < count; i++) {
+                buildFeature(features, order[i], builder, properties);
+                put(channel, buffer, builder);
+            }
+            flush(channel, buffer);
+            RunMetrics.count("bytesWritten", channel.position());
+        }
+    }
+
+    /**
+     * Writes a layer of points without attributes and without a spatial index, each point being written as it
+     * is visited so memory does not grow with the number of points. Readers scan the whole file instead of
+     * reading only the features within a bounding box, and the header holds no extent as it is not known until
+     * every point has been written.
+     * @param file - File to write.
+     * @param count - Number of points the source passes to its visitor.
+     * @param points - Points of the layer.
+     * @throws IOException If the file cannot be written or the source passes a different number of points.
+     */
+    public void writePoints(File file, long count, Points points) throws IOException {
+        if (geometryType != POINT || !columnNames.isEmpty()) {
+            throw new IllegalStateException("Only a layer of points without columns can be written unindexed");
+        }
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(MAGIC);
+            buildHeader(builder, count, null, 0);
+            put(channel, buffer, builder);
+            long[] written = new long[1];
+            points.forEach((lat, lon) -> {
+                builder.clear();
+                int geometry = point(builder, lon, lat);
+                builder.startTable(3);
+                builder.addOffset(0, geometry);
+                builder.finishSizePrefixed(builder.endTable());
+                put(channel, buffer, builder);
+                written[0]++;
+            });
+            if (written[0] != count) {
+                throw new IOException(file + " was to hold " + count + " points but " + written[0] +
+                        " were written");
+            }
+            flush(channel, buffer);
+            RunMetrics.count("bytesWritten", channel.position());
+        }
+    }
+
+    /**
+     * Writes the Geometry table of a point.
+     * @param builder - Builder to write the geometry to.
+     * @param x - Longitude of the point.
+     * @param y - Latitude of the point.
+     * @return Offset of the Geometry table.
+     */
+    public static int point(FlatBufferBuilder builder, double x, double y) {
+        int xy = builder.createDoubleVector(new double[]{x, y}, 0, 2);
+        builder.startTable(8);
+        builder.addOffset(1, xy);
+        return builder.endTable();
+    }
+
+    /**
+     * Writes the Geometry table of a multi polygon, each polygon being one part with its holes as further rings.
+     * @param builder - Builder to write the geometry to.
+     * @param polygons - Parts of the multi polygon.
+     * @return Offset of the Geometry table.
+     */
+    public static int multiPolygon(FlatBufferBuilder builder, Polygon... polygons) {
+        int[] parts = new int[polygons.length];
+        for (int part = 0; part < polygons.length; part++) {
+            Polygon[] holes = polygons[part].getHoles();
+            Polygon[] rings = new Polygon[holes.length + 1];
+            rings[0] = polygons[part];
+            System.arraycopy(holes, 0, rings, 1, holes.length);
+            double[][] lats = new double[rings.length][];
+            double[][] lons = new double[rings.length][];
+            int points = 0;
+            for (int ring = 0; ring < rings.length; ring++) {
+                lats[ring] = rings[ring].getPolyLats();
+                lons[ring] = rings[ring].getPolyLons();
+                points += lats[ring].length;
+            }
+            double[] xy = new double[points * 2];
+            int[] ends = new int[rings.length];
+            int end = 0;
+            for (int ring = 0; ring < rings.length; ring++) {
+                for (int i = 0; i < lats[ring].length; i++) {
+                    xy[2 * end] = lons[ring][i];
+                    xy[2 * end + 1] = lats[ring][i];
+                    end++;
+                }
+                ends[ring] = end;
+            }
+            // Ring ends are only needed when there is more than one ring
+            int endsVector = rings.length > 1 ? builder.createIntVector(ends, ends.length) : 0;
+            int xyVector = builder.createDoubleVector(xy, 0, xy.length);
+            builder.startTable(8);
+            builder.addOffset(1, xyVector);
+            if (endsVector != 0) {
+                builder.addOffset(0, endsVector);
+            }
+            builder.addByte(6, POLYGON);
+            parts[part] = builder.endTable();
+        }
+        int partsVector = builder.createOffsetVector(parts, parts.length);
+        builder.startTable(8);
+        builder.addOffset(7, partsVector);
+        builder.addByte(6, MULTI_POLYGON);
+        return builder.endTable();
+    }
+
+    // Writes the size prefixed Header table describing the layer, without an envelope when extent is null and
+    // without an index when nodeSize is 0
+    private void buildHeader(FlatBufferBuilder builder, long count, double[] extent, int nodeSize) {
+        builder.clear();
+        int nameString = builder.createString(name);
+        int[] columns = new int[columnNames.size()];
+        for (int i = 0; i < columns.length; i++) {
+            int columnName = builder.createString(columnNames.get(i));
+            builder.startTable(11);
+            builder.addOffset(0, columnName);
+            builder.addByte(1, columnTypes.get(i));
+            columns[i] = builder.endTable();
+        }
+        int columnsVector = columns.length > 0 ? builder.createOffsetVector(columns, columns.length) : 0;
+        int envelope = count > 0 && extent != null ? builder.createDoubleVector(extent, 0, 4) : 0;
+        int organisation = builder.createString("EPSG");
+        builder.startTable(6);
+        builder.addOffset(0, organisation);
+        builder.addInt(1, 4326);
+        int crs = builder.endTable();
+
+        builder.startTable(14);
+        builder.addLong(8, count);
+        builder.addOffset(0, nameString);
+        if (envelope != 0) {
+            builder.addOffset(1, envelope);
+        }
+        if (columnsVector != 0) {
+            builder.addOffset(7, columnsVector);
+        }
+        builder.addOffset(10, crs);
+        builder.addShort(9, (short) nodeSize);
+        builder.addByte(2, geometryType);
+        builder.finishSizePrefixed(builder.endTable());
+    }
+
+    // Writes the size prefixed Feature table of a feature
+    private static void buildFeature(Features features, int feature, FlatBufferBuilder builder,
+                                     Properties properties) {
+        builder.clear();
+        properties.size = 0;
+        features.addProperties(feature, properties);
+        int propertiesVector = properties.size > 0 ? builder.createByteVector(properties.bytes, properties.size) : 0;
+        int geometry = features.buildGeometry(feature, builder);
+        builder.startTable(3);
+        builder.addOffset(0, geometry);
+        if (propertiesVector != 0) {
+            builder.addOffset(1, propertiesVector);
+        }
+        builder.finishSizePrefixed(builder.endTable());
+    }
+
+    // Writes the packed R-tree: the leaves are the features in curve order and each level above holds the bounds
+    // of up to NODE_SIZE nodes of the level below. Levels are stored from the root down, as FlatGeobuf lays them out.
+    private static void writeIndex(FileChannel channel, ByteBuffer buffer, double[] boxes, int[] order,
+                                   long[] featureOffsets) throws IOException {
+        int count = order.length;
+        ArrayList<Integer> levelSizes = new ArrayList<>();
+        int nodes = count;
+        int size = count;
+        levelSizes.add(size);
+        do {
+            size = (size + NODE_SIZE - 1) / NODE_SIZE;
+            nodes += size;
+            levelSizes.add(size);
+        } while (size != 1);
+        // Start of each level, leaves first
+        int[] levelStarts = new int[levelSizes.size()];
+        int start = nodes;
+        for (int level = 0; level < levelStarts.length; level++) {
+            start -= levelSizes.get(level);
+            levelStarts[level] = start;
+        }
+
+        double[] nodeBoxes = new double[nodes * 4];
+        long[] nodeOffsets = new long[nodes];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(boxes, order[i] * 4, nodeBoxes, (levelStarts[0] + i) * 4, 4);
+            nodeOffsets[levelStarts[0] + i] = featureOffsets[i];
+        }
+        for (int level = 0; level < levelStarts.length - 1; level++) {
+            int child = levelStarts[level];
+            int end = child + levelSizes.get(level);
+            int parent = levelStarts[level + 1];
+            while (child < end) {
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                // Internal nodes hold the index of their first child
+                nodeOffsets[parent] = child;
+                for (int j = 0; j < NODE_SIZE && child < end; j++, child++) {
+                    minX = Math.min(minX, nodeBoxes[child * 4]);
+                    minY = Math.min(minY, nodeBoxes[child * 4 + 1]);
+                    maxX = Math.max(maxX, nodeBoxes[child * 4 + 2]);
+                    maxY = Math.max(maxY, nodeBoxes[child * 4 + 3]);
+                }
+                nodeBoxes[parent * 4] = minX;
+                nodeBoxes[parent * 4 + 1] = minY;
+                nodeBoxes[parent * 4 + 2] = maxX;
+                nodeBoxes[parent * 4 + 3] = maxY;
+                parent++;
+            }
+        }
+
+        for (int node = 0; node < nodes; node++) {
+            if (buffer.remaining() < NODE_BYTES) {
+                flush(channel, buffer);
+            }
+            buffer.putDouble(nodeBoxes[node * 4]);
+            buffer.putDouble(nodeBoxes[node * 4 + 1]);
+            buffer.putDouble(nodeBoxes[node * 4 + 2]);
+            buffer.putDouble(nodeBoxes[node * 4 + 3]);
+            buffer.putLong(nodeOffsets[node]);
+        }
+    }
+
+    // Writes the finished buffer of the builder
+    private static void put(FileChannel channel, ByteBuffer buffer, FlatBufferBuilder builder) throws IOException {
+        byte[] bytes = builder.getBuffer();
+        int start = builder.start();
+        int length = bytes.length - start;
+        if (buffer.remaining() < length) {
+            flush(channel, buffer);
+        }
+        if (length > buffer.capacity()) {
+            ByteBuffer large = ByteBuffer.wrap(bytes, start, length);
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+        } else {
+            buffer.put(bytes, start, length);
+        }
+    }
+
+    // Writes the contents of the buffer to the channel and clears it
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
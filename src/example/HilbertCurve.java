@@ -0,0 +1,152 @@
+package example;
+
+/**
+ * Position along a Hilbert curve filling a 2^16 by 2^16 grid. Points close together on the curve are close
+ * together on the ground, so ordering items by it keeps neighbouring items together, as needed for the packed
+ * R-tree of a FlatGeobuf file and for testing journeys against the data zones near each other.
+ */
+public class HilbertCurve {
+
+    /** Largest grid coordinate along each axis. */
+    public static final int MAX = (1 << 16) - 1;
+
+    /**
+     * Returns the position of a grid cell along the curve.
+     * @param x - Column of the cell, 0 to MAX.
+     * @param y - Row of the cell, 0 to MAX.
+     * @return Position along the curve as an unsigned 32 bit value.
+     */
+    public static int index(int x, int y) {
+        // Branchless mapping from "Fast Hilbert curve generation, sorting and range queries" (rawrunprotected),
+        // as used by FlatGeobuf
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int aa = a | (b >>> 1);
+        int bb = (a >>> 1) ^ a;
+        int cc = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int dd = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = aa;
+        b = bb;
+        c = cc;
+        d = dd;
+        aa = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        bb = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        cc ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        dd ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = aa;
+        b = bb;
+        c = cc;
+        d = dd;
+        aa = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        bb = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        cc ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        dd ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = aa;
+        b = bb;
+        c = cc;
+        d = dd;
+        cc ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        dd ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = cc ^ (cc >>> 1);
+        b = dd ^ (dd >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+        return (interleave(i1) << 1) | interleave(i0);
+    }
+
+    /**
+     * Returns the position along the curve of a point within an extent, the extent being scaled onto the grid.
+     * Points outside the extent take the position of the nearest cell on its edge.
+     * @param x - X (longitude) coordinate of the point.
+     * @param y - Y (latitude) coordinate of the point.
+     * @param minX - Smallest x of the extent.
+     * @param minY - Smallest y of the extent.
+     * @param width - Width of the extent, 0 if every point has the same x.
+     * @param height - Height of the extent, 0 if every point has the same y.
+     * @return Position along the curve as an unsigned 32 bit value.
+     */
+    public static int index(double x, double y, double minX, double minY, double width, double height) {
+        int gridX = width == 0 ? 0 : (int) Math.floor(MAX * (x - minX) / width);
+        int gridY = height == 0 ? 0 : (int) Math.floor(MAX * (y - minY) / height);
+        return index(Math.max(0, Math.min(MAX, gridX)), Math.max(0, Math.min(MAX, gridY)));
+    }
+
+    /**
+     * Orders points along the curve through their extent. Points at the same position keep their original order.
+     * @param xs - X (longitude) coordinates of the points.
+     * @param ys - Y (latitude) coordinates of the points.
+     * @param count - Number of points, the first count elements of the arrays are used.
+     * @return Indices of the points in curve order.
+     */
+    public static int[] sort(double[] xs, double[] ys, int count) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return sort(xs, ys, count, minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Orders points along the curve through a fixed extent, so points sorted separately share one curve.
+     * Points at the same position keep their original order.
+     * @param xs - X (longitude) coordinates of the points.
+     * @param ys - Y (latitude) coordinates of the points.
+     * @param count - Number of points, the first count elements of the arrays are used.
+     * @param minX - Smallest x of the extent.
+     * @param minY - Smallest y of the extent.
+     * @param width - Width of the extent, 0 if every point has the same x.
+     * @param height - Height of the extent, 0 if every point has the same y.
+     * @return Indices of the points in curve order.
+     */
+    public static int[] sort(double[] xs, double[] ys, int count, double minX, double minY,
+                             double width, double height) {
+        int[] positions = new int[count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = index(xs[i], ys[i], minX, minY, width, height);
+            order[i] = i;
+        }
+        // Stable radix sort of the unsigned positions, low 16 bits then high 16 bits
+        int[] buffer = new int[count];
+        radixPass(positions, order, buffer, 0);
+        radixPass(positions, buffer, order, 16);
+        return order;
+    }
+
+    // Moves the items into to ordered by 16 bits of their positions from shift up, keeping equal items in order
+    private static void radixPass(int[] positions, int[] from, int[] to, int shift) {
+        int[] starts = new int[(1 << 16) + 1];
+        for (int item : from) {
+            starts[((positions[item] >>> shift) & 0xFFFF) + 1]++;
+        }
+        for (int digit = 0; digit < 1 << 16; digit++) {
+            starts[digit + 1] += starts[digit];
+        }
+        for (int item : from) {
+            to[starts[(positions[item] >>> shift) & 0xFFFF]++] = item;
+        }
+    }
+
+    // Spreads the low 16 bits of the value out to the even bits
+    private static int interleave(int value) {
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
+}
@@ -18,6 +18,10 @@ public class Journey {
         return duration.toMinutes();
     }
 
+    public int getMinutes() {
+        return (int) duration.toMinutes();
+    }
+
     public double getLon(){
         return this.location.x();
     }
@@ -0,0 +1,121 @@
+package example;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JourneyBatch holds journeys as parallel primitive arrays of latitude, longitude and travel time in
+ * whole minutes, avoiding an object per journey.
+ */
+public class JourneyBatch {
+
+    private double[] lats;
+    private double[] lons;
+    private int[] minutes;
+    private int size;
+
+    /**
+     * Creates an empty batch.
+     * @param capacity - Number of journeys the batch can hold before growing.
+     */
+    public JourneyBatch(int capacity) {
+        this.lats = new double[Math.max(1, capacity)];
+        this.lons = new double[Math.max(1, capacity)];
+        this.minutes = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Creates a batch backed by existing arrays, which must all have the same length.
+     * @param latitudes - Latitude of each journey's location.
+     * @param longitudes - Longitude of each journey's location.
+     * @param minutes - Travel time of each journey in whole minutes, negative for an inbound analysis.
+     */
+    public JourneyBatch(double[] latitudes, double[] longitudes, int[] minutes) {
+        if (latitudes.length != longitudes.length || latitudes.length != minutes.length) {
+            throw new IllegalArgumentException("Journey arrays must have the same length");
+        }
+        this.lats = latitudes;
+        this.lons = longitudes;
+        this.minutes = minutes;
+        this.size = latitudes.length;
+    }
+
+    /**
+     * Copies a list of journeys into a batch.
+     * @param journeys - Journeys to copy.
+     * @return JourneyBatch holding the journeys in list order.
+     */
+    public static JourneyBatch of(List<Journey> journeys) {
+        JourneyBatch batch = new JourneyBatch(journeys.size());
+        for (Journey journey : journeys) {
+            batch.add(journey);
+        }
+        return batch;
+    }
+
+    /**
+     * Appends a journey to the batch.
+     * @param journey - Journey to append.
+     */
+    public void add(Journey journey) {
+        add(journey.getLat(), journey.getLon(), journey.getMinutes());
+    }
+
+    /**
+     * Appends a journey to the batch, growing the arrays if they are full.
+     * @param latitude - Latitude of the journey's location.
+     * @param longitude - Longitude of the journey's location.
+     * @param minutes - Travel time in whole minutes.
+     */
+    public void add(double latitude, double longitude, int minutes) {
+        if (size == lats.length) {
+            int capacity = lats.length * 2;
+            this.lats = Arrays.copyOf(lats, capacity);
+            this.lons = Arrays.copyOf(lons, capacity);
+            this.minutes = Arrays.copyOf(this.minutes, capacity);
+        }
+        lats[size] = latitude;
+        lons[size] = longitude;
+        this.minutes[size] = minutes;
+        size++;
+    }
+
+    /**
+     * Removes every journey, keeping the arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the number of journeys in the batch.
+     * @return Number of journeys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the latitudes, only the first size() elements are journeys.
+     * @return Array of latitudes.
+     */
+    public double[] getLatitudes() {
+        return lats;
+    }
+
+    /**
+     * Returns the longitudes, only the first size() elements are journeys.
+     * @return Array of longitudes.
+     */
+    public double[] getLongitudes() {
+        return lons;
+    }
+
+    /**
+     * Returns the travel times in whole minutes, only the first size() elements are journeys.
+     * @return Array of travel times.
+     */
+    public int[] getMinutes() {
+        return minutes;
+    }
+}
@@ -5,12 +5,38 @@ import org.apache.commons.io.FilenameUtils;
 
 // standard library imports
 import java.io.*;
+import java.sql.Timestamp;
 import java.time.*;
 import java.util.*;
 import java.util.function.*;
 
 public class Main {
 
+    // Directory holding one CSV file per SIMD data zone (and per -part-n of multi-part zones, which are loaded
+    // together as one DataZone)
+    private static final String ZONE_DIRECTORY = "/Users/callumross/Documents/MSc Project/Project/Data/Working Data";
+    // Packed geometry file created from ZONE_DIRECTORY with ZoneGeometryFile
+    private static final String ZONE_GEOMETRY_FILE = "/Users/callumross/Documents/MSc Project/Project/Data/DataZones.bin";
+    // Zone lookup grid created from the data zones with ZoneGrid
+    private static final String ZONE_GRID_FILE = "/Users/callumross/Documents/MSc Project/Project/Data/DataZones.grid";
+    // Cache of earlier results and their exported files, kept within RESULT_CACHE_BYTES
+    private static final String RESULT_CACHE_DIRECTORY = "/Users/callumross/Documents/MSc Project/Project/Data/" +
+            "Result Cache";
+    private static final long RESULT_CACHE_BYTES = 2L << 30;
+    // Timings and counters of the run, written next to the exported files
+    private static final String RUN_METRICS_FILE = " Analysis_Run_Metrics.json";
+    // How the journeys within each data zone are reduced to the zone's travel time
+    private static final PopulationCalculation.Aggregation AGGREGATION = PopulationCalculation.Aggregation.FIRST;
+    // Journeys outside every data zone are snapped to the nearest zone boundary within this many metres,
+    // negative to drop them instead
+    private static final double SNAP_DISTANCE = -1;
+    // Exact point in polygon test, VECTOR needs src/vector compiled and the JVM started with
+    // --add-modules jdk.incubator.vector
+    private static final DataZone.ContainsEngine CONTAINS_ENGINE = DataZone.ContainsEngine.POLYGON2D;
+    // Whether journeys are sorted along a Hilbert curve before assignment, which pays when most journeys need
+    // contains tests but not when the zone grid resolves nearly all of them
+    private static final boolean HILBERT_ORDER = false;
+
     public static void main(String[] args) throws IOException {
         // Please note a large section of code has been remove due to request
         // from the SDTC team at RGU and HITRANS (Highland and Island Transport).
@@ -19,7 +45,8 @@ public class Main {
         ArrayList<Journey> journeys = new ArrayList<>();
 
         // Load DataZones
-        ArrayList<DataZone> zones = loadDataZoneMetrics();
+        DataZone.setContainsEngine(CONTAINS_ENGINE);
+        DataZoneStore zones = new DataZoneStore(loadDataZoneMetrics());
 
         // Determine if inbound or inbound analysis for writing files
         boolean analysis = false;
@@ -32,12 +59,73 @@ public class Main {
         // double array containing start point latitude and longitude coordinates for writing files
         double[] sps = new double[]{startPoint.y(),startPoint.x()};
 
-        PopulationCalculation inbound = new PopulationCalculation(zones,journeys,maxTravelTime.toHoursPart(),30);
+        // Repeated analyses are taken from the result cache
+        ResultCache cache = new ResultCache(new File(RESULT_CACHE_DIRECTORY), RESULT_CACHE_BYTES);
+        String key = ResultCache.key(sps, (int) maxTravelTime.toMinutes(), 30, AGGREGATION, SNAP_DISTANCE, zones,
+                journeys);
+        PopulationCalculation inbound = cache.get(key, zones);
+        if (inbound != null) {
+            File destination = ExportFiles.getTimestampedDestination(analysis,
+                    new Timestamp(System.currentTimeMillis()));
+            if (cache.copyExports(key, destination)) {
+                inbound.print();
+                RunMetrics.writeSummary(new File(destination, RUN_METRICS_FILE));
+                return;
+            }
+            // The cached results hold no locations to export them from, so the analysis is performed again
+        }
+
+        inbound = new PopulationCalculation(zones,journeys,maxTravelTime,30);
+        inbound.setParallelism(Runtime.getRuntime().availableProcessors());
+        inbound.setZoneGrid(loadZoneGrid(zones));
+        inbound.setAggregation(AGGREGATION);
+        inbound.setZoneSnapper(SNAP_DISTANCE < 0 ? null : new ZoneSnapper(zones, SNAP_DISTANCE));
+        inbound.setHilbertOrder(HILBERT_ORDER);
         inbound.print();
-        ExportFiles ef = new ExportFiles(inbound.getMap(),inbound.getMap2020(),inbound.getMap2016(),
-                                            inbound.getGeoAcessMap2020(), inbound.getGeoAcessMap2016(),
-                                            inbound.getMap2020Rank(),analysis,sps,inbound.getList(),
-                                            inbound.getCheckJourneys());
+        ExportFiles ef = new ExportFiles(inbound,analysis,sps);
+        cache.put(key, inbound, ef.getFileDestination());
+        // Written after caching the exports, so the summary describes this run only
+        RunMetrics.writeSummary(new File(ef.getFileDestination(), RUN_METRICS_FILE));
+    }
+
+    // Runs every job listed in the job file against data zones loaded once, several jobs at a time.
+    // journeySource performs the inbound/outbound analysis for a job, as the removed section of main does.
+    public static void runBatch(File jobFile, Function<AnalysisJob, ArrayList<Journey>> journeySource)
+            throws IOException, InterruptedException {
+        ArrayList<AnalysisJob> jobs = AnalysisJob.load(jobFile);
+        DataZone.setContainsEngine(CONTAINS_ENGINE);
+        DataZoneStore zones = new DataZoneStore(loadDataZoneMetrics());
+        BatchRunner runner = new BatchRunner(zones, journeySource, new File(ExportFiles.OUTPUT_DIRECTORY),
+                Runtime.getRuntime().availableProcessors());
+        runner.setZoneGrid(loadZoneGrid(zones));
+        runner.setHilbertOrder(HILBERT_ORDER);
+        runner.setResultCache(new ResultCache(new File(RESULT_CACHE_DIRECTORY), RESULT_CACHE_BYTES));
+        runner.setAggregation(AGGREGATION);
+        runner.setZoneSnapper(SNAP_DISTANCE < 0 ? null : new ZoneSnapper(zones, SNAP_DISTANCE));
+        runner.run(jobs);
+    }
+
+    // Serves population calculations over HTTP on localhost from data zones loaded once, until the process ends
+    public static QueryServer runServer(int port, int maxConcurrent) throws IOException {
+        DataZone.setContainsEngine(CONTAINS_ENGINE);
+        DataZoneStore zones = new DataZoneStore(loadDataZoneMetrics());
+        QueryServer server = new QueryServer(zones, loadZoneGrid(zones), port, maxConcurrent);
+        server.start();
+        System.out.println("Answering queries at http://localhost:" + server.getPort() + "/calculate");
+        return server;
+    }
+
+    // Static method to load the precomputed zone grid, null when there is no grid for these zones
+    public static ZoneGrid loadZoneGrid(DataZoneStore zones){
+        File file = new File(ZONE_GRID_FILE);
+        if (file.isFile()) {
+            try {
+                return ZoneGrid.read(file, zones);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return null;
     }
 
     // Static method to convert ArrayList to array
@@ -49,81 +137,247 @@ public class Main {
         return array;
     }
 
-    // Static method to load in SIMD DataZones
-
+    // Static method to load in SIMD DataZones, from the packed geometry file when one has been created
+    @SuppressWarnings("try")
     public static ArrayList<DataZone> loadDataZones(){
-        ArrayList<DataZone> zones = new ArrayList<>();
-        File dir = new File("/Users/callumross/Documents/MSc Project/Project/Data/Working Data");
-
-        for (File f : dir.listFiles()) {
-            String name = f.getName();
-
-            // Two ArrayLists to store the Data
-            ArrayList<Double> longitude = new ArrayList<>();
-            ArrayList<Double> latitude = new ArrayList<>();
-
-            if (f.isFile() && FilenameUtils.isExtension(name,"csv")) {
-                BufferedReader inputStream;
-                String line;
+        try (RunMetrics.Timer timer = RunMetrics.time("loadDataZones")) {
+            File packed = new File(ZONE_GEOMETRY_FILE);
+            if (packed.isFile()) {
                 try {
-                    inputStream = new BufferedReader(new FileReader(f));
-
-                    // Skips header line
-                    String headerline = inputStream.readLine();
-
-                    while ((line = inputStream.readLine()) != null) {
-                        String[] parts = line.split(",");
-
-                        latitude.add(Double.parseDouble(parts[0]));
-                        longitude.add(Double.parseDouble(parts[1]));
-                    }
+                    return ZoneGeometryFile.read(packed);
                 } catch (IOException e) {
                     System.out.println(e);
                 }
             }
-            // Checks lists arent empty and Converts ArrayList to Array
-            if(!longitude.isEmpty() && !latitude.isEmpty()){
-                double[] lats = arrayList2Array(latitude);
-                double[] lons = arrayList2Array(longitude);
-                zones.add(new DataZone(lats,lons,name));
+            return loadDataZones(new File(ZONE_DIRECTORY));
+        }
+    }
+
+    // Static method to load in SIMD DataZones from a directory of CSV files
+    public static ArrayList<DataZone> loadDataZones(File dir){
+        ArrayList<String> fileNames = new ArrayList<>();
+        ArrayList<double[][]> geometries = new ArrayList<>();
+
+        for (File f : dir.listFiles()) {
+            double[][] geometry = readDataZoneFile(f);
+            if (geometry != null) {
+                fileNames.add(f.getName());
+                geometries.add(geometry);
+            }
+        }
+        return createDataZones(fileNames, geometries);
+    }
+
+    // Static method to create one DataZone per data zone from the geometry read from each file. The -part-n files
+    // of multi-part zones are grouped by zone name into a single DataZone, in the order the first part was read.
+    public static ArrayList<DataZone> createDataZones(List<String> fileNames, List<double[][]> geometries){
+        LinkedHashMap<String, ArrayList<double[][]>> parts = new LinkedHashMap<>();
+        for (int i = 0; i < fileNames.size(); i++) {
+            parts.computeIfAbsent(DataZone.getZoneName(fileNames.get(i)), name -> new ArrayList<>())
+                    .add(geometries.get(i));
+        }
+
+        ArrayList<DataZone> zones = new ArrayList<>(parts.size());
+        for (Map.Entry<String, ArrayList<double[][]>> entry : parts.entrySet()) {
+            ArrayList<double[][]> zoneParts = entry.getValue();
+            double[][] latitudes = new double[zoneParts.size()][];
+            double[][] longitudes = new double[zoneParts.size()][];
+            for (int i = 0; i < zoneParts.size(); i++) {
+                latitudes[i] = zoneParts.get(i)[0];
+                longitudes[i] = zoneParts.get(i)[1];
             }
+            zones.add(new DataZone(latitudes, longitudes, entry.getKey()));
         }
         return zones;
     }
 
-    // Static method to add population to SIMD DataZones
-    public static ArrayList<DataZone> loadDataZoneMetrics(){
-        ArrayList<DataZone> zones = loadDataZones();
-        // Read in Populations
-        File file3 = new File("/Users/callumross/Documents/MSc Project/Project/Geo Access Domain/" +
-                "SIMD_Data_Zone_Metrics.csv");
+    // Static method to read the latitudes and longitudes from a data zone CSV file, null if the file has none
+    public static double[][] readDataZoneFile(File f){
+        String name = f.getName();
 
-        if (file3.isFile()) {
+        // Two ArrayLists to store the Data
+        ArrayList<Double> longitude = new ArrayList<>();
+        ArrayList<Double> latitude = new ArrayList<>();
+
+        if (f.isFile() && FilenameUtils.isExtension(name,"csv")) {
             BufferedReader inputStream;
             String line;
             try {
-                inputStream = new BufferedReader(new FileReader(file3));
+                inputStream = new BufferedReader(new FileReader(f));
+
                 // Skips header line
                 String headerline = inputStream.readLine();
 
                 while ((line = inputStream.readLine()) != null) {
                     String[] parts = line.split(",");
-                    String name = parts[0].replace("\"","");
-
-                    for(DataZone dz: zones){
-                        if(dz.getName().equals(name)){
-                            dz.setPopulation2020(Integer.valueOf(parts[1]));
-                            dz.setPopulation2016(Integer.valueOf(parts[2]));
-                            dz.setGeoAccessDomain2020(Integer.valueOf(parts[3]));
-                            dz.setGeoAccessDomain2016(Integer.valueOf(parts[4]));
-                            dz.setGeoAccess2020Rank(Integer.valueOf(parts[7]));
-                        }
-                    }
+
+                    latitude.add(Double.parseDouble(parts[0]));
+                    longitude.add(Double.parseDouble(parts[1]));
                 }
             } catch (IOException e) {
                 System.out.println(e);
             }
         }
+        // Checks lists arent empty and Converts ArrayList to Array
+        if(!longitude.isEmpty() && !latitude.isEmpty()){
+            return new double[][]{arrayList2Array(latitude), arrayList2Array(longitude)};
+        }
+        return null;
+    }
+
+    // Static method to add population to SIMD DataZones
+    public static ArrayList<DataZone> loadDataZoneMetrics(){
+        ArrayList<DataZone> zones = loadDataZones();
+        // Read in Populations
+        File file3 = new File("/Users/callumross/Documents/MSc Project/Project/Geo Access Domain/" +
+                "SIMD_Data_Zone_Metrics.csv");
+        loadDataZoneMetrics(zones, file3);
         return zones;
     }
+
+    // Static method to attach the metrics in the SIMD metrics CSV to the DataZones in a single pass over the file.
+    // Zones are found through a name index and the columns are parsed in place without splitting each line.
+    @SuppressWarnings("try")
+    public static void loadDataZoneMetrics(ArrayList<DataZone> zones, File file){
+        try (RunMetrics.Timer timer = RunMetrics.time("loadDataZoneMetrics")) {
+            readDataZoneMetrics(zones, file);
+        }
+    }
+
+    // Reads the SIMD metrics CSV into the DataZones, see loadDataZoneMetrics
+    private static void readDataZoneMetrics(ArrayList<DataZone> zones, File file){
+        if (!file.isFile()) {
+            System.out.println("SIMD metrics file not found: " + file);
+            return;
+        }
+
+        // Index of each zone by name, multi-part zones having been loaded as a single DataZone
+        HashMap<String, Integer> index = new HashMap<>(zones.size() * 2);
+        for (int i = 0; i < zones.size(); i++) {
+            index.put(zones.get(i).getName(), i);
+        }
+
+        boolean[] found = new boolean[zones.size()];
+        ArrayList<String> unknownZones = new ArrayList<>();
+        int rows = 0;
+        int malformedRows = 0;
+        int[] fields = new int[9];
+
+        try (BufferedReader inputStream = new BufferedReader(new FileReader(file))) {
+            // Skips header line
+            String line = inputStream.readLine();
+
+            while ((line = inputStream.readLine()) != null) {
+                rows++;
+                if (splitFields(line, fields) < 8) {
+                    malformedRows++;
+                    continue;
+                }
+                String name = unquotedField(line, fields[0] + 1, fields[1]);
+                Integer zone = index.get(name);
+                if (zone == null) {
+                    unknownZones.add(name);
+                    continue;
+                }
+                try {
+                    int population2020 = parseInt(line, fields[1] + 1, fields[2]);
+                    int population2016 = parseInt(line, fields[2] + 1, fields[3]);
+                    int geoAccessDomain2020 = parseInt(line, fields[3] + 1, fields[4]);
+                    int geoAccessDomain2016 = parseInt(line, fields[4] + 1, fields[5]);
+                    int geoAccess2020Rank = parseInt(line, fields[7] + 1, fields[8]);
+                    DataZone dz = zones.get(zone);
+                    dz.setPopulation2020(population2020);
+                    dz.setPopulation2016(population2016);
+                    dz.setGeoAccessDomain2020(geoAccessDomain2020);
+                    dz.setGeoAccessDomain2016(geoAccessDomain2016);
+                    dz.setGeoAccess2020Rank(geoAccess2020Rank);
+                    found[zone] = true;
+                } catch (NumberFormatException e) {
+                    malformedRows++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+
+        ArrayList<String> missingZones = new ArrayList<>();
+        for (int i = 0; i < zones.size(); i++) {
+            if (!found[i]) {
+                missingZones.add(zones.get(i).getName());
+            }
+        }
+        RunMetrics.count("metricsRows", rows);
+        RunMetrics.count("zonesWithoutMetrics", missingZones.size());
+        System.out.println("Loaded SIMD metrics: " + rows + " rows, " + (zones.size() - missingZones.size()) +
+                " of " + zones.size() + " data zones matched.");
+        if (malformedRows > 0) {
+            System.out.println(malformedRows + " malformed rows skipped.");
+        }
+        if (!unknownZones.isEmpty()) {
+            System.out.println(unknownZones.size() + " rows for unknown data zones: " + summarise(unknownZones));
+        }
+        if (!missingZones.isEmpty()) {
+            System.out.println(missingZones.size() + " data zones without metrics: " + summarise(missingZones));
+        }
+    }
+
+    // Records the position of the comma ending each field in fields[1..], fields[0] is -1.
+    // Returns the number of fields found, at most fields.length - 1.
+    private static int splitFields(String line, int[] fields){
+        int count = 0;
+        fields[0] = -1;
+        for (int i = 0; i < line.length() && count < fields.length - 1; i++) {
+            if (line.charAt(i) == ',') {
+                fields[++count] = i;
+            }
+        }
+        if (count < fields.length - 1) {
+            fields[++count] = line.length();
+        }
+        return count;
+    }
+
+    // Returns the field between start (inclusive) and end (exclusive) without its surrounding quotes
+    private static String unquotedField(String line, int start, int end){
+        if (start < end && line.charAt(start) == '"') {
+            start++;
+        }
+        if (end > start && line.charAt(end - 1) == '"') {
+            end--;
+        }
+        return line.substring(start, end);
+    }
+
+    // Parses the integer between start (inclusive) and end (exclusive) without creating a substring
+    private static int parseInt(String line, int start, int end){
+        while (start < end && line.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        boolean negative = start < end && line.charAt(start) == '-';
+        if (negative) {
+            start++;
+        }
+        if (start >= end) {
+            throw new NumberFormatException("Empty value");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not an integer: " + line.substring(start, end));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // Lists the first few names for the metrics summary
+    private static String summarise(ArrayList<String> names){
+        int shown = Math.min(names.size(), 10);
+        String list = String.join(", ", names.subList(0, shown));
+        return names.size() > shown ? list + ", ..." : list;
+    }
 }
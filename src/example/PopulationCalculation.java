@@ -1,24 +1,94 @@
 package example;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 /**
  * Calculates reachable for reachability analysis performed.
+ * Populations are accumulated per travel time interval: the bin with upper bound b holds the zones whose credited
+ * journey takes over b - bin and up to b minutes, the first bin also holding journeys of 0 minutes or less.
+ * Cumulative totals (b minutes or under) are available separately.
+ * A calculation receiving its journeys through accept spools their locations to a temporary file, which is
+ * deleted when the calculation is closed.
  */
-public class PopulationCalculation {
-    private ArrayList<DataZone> dataZones;
+public class PopulationCalculation implements AutoCloseable {
+    private static final int MIN_TASK_SIZE = 1024;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final LongAdder journeysAssigned = RunMetrics.counter("journeys");
+    private static final LongAdder journeysResolvedByGrid = RunMetrics.counter("journeysResolvedByGrid");
+    private static final LongAdder journeysInEmptyCells = RunMetrics.counter("journeysInEmptyCells");
+    private static final LongAdder journeysTested = RunMetrics.counter("journeysTestedAgainstZones");
+    // Journeys lying in or snapped to at least one zone, and the rest. Only counted by the aggregations other than
+    // FIRST, which test every journey against the zones, as FIRST skips zones already holding an earlier journey.
+    private static final LongAdder journeysMatched = RunMetrics.counter("journeysMatched");
+    private static final LongAdder journeysUnmatched = RunMetrics.counter("journeysUnmatched");
+    // Distinct journeys credited to at least one zone, and the rest, counted by every aggregation
+    private static final LongAdder journeysCredited = RunMetrics.counter("journeysCredited");
+    private static final LongAdder journeysNotCredited = RunMetrics.counter("journeysNotCredited");
+    private static final LongAdder zonesHit = RunMetrics.counter("zonesHit");
+    private static final LongAdder zonesCredited = RunMetrics.counter("zonesCredited");
+    private static final LongAdder journeysSnappedTotal = RunMetrics.counter("journeysSnapped");
+    private static final LongAdder journeysDiscardedTotal = RunMetrics.counter("journeysDiscarded");
+    private DataZoneStore dataZones;
+    private ZoneGrid zoneGrid;
+    private ZoneSnapper zoneSnapper;
+    // Maximum snapping distance in metres, -1 if journeys are not snapped
+    private double snapDistance = -1;
+    private LongAdder snappedJourneys = new LongAdder();
+    private LongAdder discardedJourneys = new LongAdder();
     private ArrayList<Journey> journeys;
-    private ArrayList<Integer> travelTimeBins = new ArrayList<>();
-    private HashMap<Integer, Integer> map2020 = new HashMap<>();
-    private HashMap<Integer, Integer> map2016 = new HashMap<>();
+    private JourneyBatch journeyBatch;
+    private JourneyBatch pending = new JourneyBatch(1024);
+    private int journeyCount;
+    private File locationSpool;
+    private DataOutputStream locationSpoolStream;
+    private boolean closed;
+    private long[] population2020Bins;
+    private long[] population2016Bins;
     private int bin;
+    private int numBins;
     private int endNum;
     private int calculationConstant;
-    private ArrayList <Journey> checkJourneys = new ArrayList<>();
-    private ArrayList<String> checkDataZones = new ArrayList<>();
+    private int parallelism = 1;
+    // Workers shared by every chunk, created for the first chunk assigned in parallel
+    private ForkJoinPool pool;
+    private boolean hilbertOrder;
+    private Aggregation aggregation = Aggregation.FIRST;
+    private ZoneTravelTimes zoneTimes;
+    private boolean calculated;
+    private boolean restored;
+    private int[] firstJourneys;
+    private int[] firstMinutes;
+    private double[] firstLats;
+    private double[] firstLons;
+    private int[] zoneJourneys;
+    private BitSet creditedJourneys = new BitSet();
+    // Travel time and populations of each zone whose first journey is credited to it at some bin width, in zone
+    // order. Rebinning only needs these records.
+    private int recordCount;
+    private int[] recordMinutes;
+    private int[] recordPopulation2020;
+    private int[] recordPopulation2016;
 
     /**
      * Creates Population class object.
@@ -29,21 +99,434 @@ public class PopulationCalculation {
      */
     public PopulationCalculation(ArrayList<DataZone> dataZones, ArrayList<Journey> journeys,
                                  int maxTravelTime, int bin){
-        this.dataZones = dataZones;
+        this(new DataZoneStore(dataZones), journeys, maxTravelTime, bin);
+    }
+
+    /**
+     * Creates Population class object over an existing DataZoneStore, which can be shared between calculations.
+     * @param dataZones - DataZoneStore containing all SIMD DataZones
+     * @param journeys - ArrayList containing all Journeys created from performing inbound/outbound analysis.
+     * @param maxTravelTime - maxTravelTime from inbound/outbound analysis performed.
+     * @param bin - Desired time increment in minutes for travel intervals.
+     */
+    public PopulationCalculation(DataZoneStore dataZones, ArrayList<Journey> journeys,
+                                 int maxTravelTime, int bin){
+        this(dataZones, journeys, Duration.ofHours(maxTravelTime), bin);
+    }
+
+    /**
+     * Creates Population class object over an existing DataZoneStore for a maximum travel time given to the
+     * minute, such as a 90 minute analysis.
+     * @param dataZones - DataZoneStore containing all SIMD DataZones
+     * @param journeys - ArrayList containing all Journeys created from performing inbound/outbound analysis.
+     * @param maxTravelTime - maxTravelTime from inbound/outbound analysis performed, negative for inbound.
+     * @param bin - Desired time increment in minutes for travel intervals.
+     */
+    public PopulationCalculation(DataZoneStore dataZones, ArrayList<Journey> journeys,
+                                 Duration maxTravelTime, int bin){
+        this(dataZones, maxTravelTime, bin);
         this.journeys = journeys;
+    }
+
+    /**
+     * Creates Population class object over journeys held in a JourneyBatch.
+     * @param dataZones - DataZoneStore containing all SIMD DataZones
+     * @param journeys - JourneyBatch containing all journeys created from performing inbound/outbound analysis.
+     * @param maxTravelTime - maxTravelTime from inbound/outbound analysis performed.
+     * @param bin - Desired time increment in minutes for travel intervals.
+     */
+    public PopulationCalculation(DataZoneStore dataZones, JourneyBatch journeys, int maxTravelTime, int bin){
+        this(dataZones, maxTravelTime, bin);
+        this.journeyBatch = journeys;
+    }
+
+    /**
+     * Creates Population class object over journeys held in a JourneyBatch, for a maximum travel time given to
+     * the minute.
+     * @param dataZones - DataZoneStore containing all SIMD DataZones
+     * @param journeys - JourneyBatch containing all journeys created from performing inbound/outbound analysis.
+     * @param maxTravelTime - maxTravelTime from inbound/outbound analysis performed, negative for inbound.
+     * @param bin - Desired time increment in minutes for travel intervals.
+     */
+    public PopulationCalculation(DataZoneStore dataZones, JourneyBatch journeys, Duration maxTravelTime, int bin){
+        this(dataZones, maxTravelTime, bin);
+        this.journeyBatch = journeys;
+    }
+
+    /**
+     * Creates Population class object which receives its journeys incrementally through accept, so the journeys
+     * never need to be held in memory together. Call calculate once every journey has been accepted, and close
+     * once the locations have been exported to delete their spool file.
+     * @param dataZones - DataZoneStore containing all SIMD DataZones
+     * @param maxTravelTime - maxTravelTime from inbound/outbound analysis performed.
+     * @param bin - Desired time increment in minutes for travel intervals.
+     */
+    public PopulationCalculation(DataZoneStore dataZones, int maxTravelTime, int bin){
+        this(dataZones, Duration.ofHours(maxTravelTime), bin);
+    }
+
+    /**
+     * Creates Population class object which receives its journeys incrementally through accept, for a maximum
+     * travel time given to the minute. Close it once the locations have been exported.
+     * @param dataZones - DataZoneStore containing all SIMD DataZones
+     * @param maxTravelTime - maxTravelTime from inbound/outbound analysis performed, negative for inbound.
+     * @param bin - Desired time increment in minutes for travel intervals.
+     */
+    public PopulationCalculation(DataZoneStore dataZones, Duration maxTravelTime, int bin){
+        this.dataZones = dataZones;
+        this.firstJourneys = new int[dataZones.size()];
+        this.firstMinutes = new int[dataZones.size()];
+        this.firstLats = new double[dataZones.size()];
+        this.firstLons = new double[dataZones.size()];
+        this.zoneJourneys = new int[dataZones.size()];
+        Arrays.fill(firstJourneys, -1);
+        Arrays.fill(zoneJourneys, -1);
         this.bin = bin;
-        setCalculation(maxTravelTime);
-        this.endNum = maxTravelTime * (calculationConstant*60);
+        int minutes = Math.toIntExact(maxTravelTime.toMinutes());
+        setCalculation(minutes);
+        this.endNum = minutes * calculationConstant;
+        setBins();
+    }
+
+    /**
+     * Sets the number of worker threads used to find which journeys fall within each data zone.
+     * Above one the journeys are split across a ForkJoinPool, started with the first chunk of journeys and shut down
+     * once the calculation has been performed or closed. Results are identical to the single threaded calculation.
+     * @param parallelism - Number of worker threads, 1 by default.
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets whether the journeys of each chunk are sorted along a Hilbert curve over the data zones before they
+     * are assigned, so consecutive journeys test the same zone polygons and index nodes, and each worker takes a
+     * spatially coherent range of them. Journeys keep their original indices, so results are unchanged. With
+     * the vector contains engine the zones are also packed in curve order. The sort costs a copy of each chunk.
+     * @param hilbertOrder - Whether to sort the journeys, false by default.
+     */
+    public void setHilbertOrder(boolean hilbertOrder){
+        this.hilbertOrder = hilbertOrder;
+        if (hilbertOrder && DataZone.getContainsEngine() == DataZone.ContainsEngine.VECTOR) {
+            dataZones.packAlongHilbertCurve();
+        }
+    }
+
+    /**
+     * Sets a precomputed grid used to resolve most journeys to their data zone without testing the zone polygons.
+     * The grid must have been built from the same DataZoneStore. Results are unchanged.
+     * @param zoneGrid - Grid over the data zones, or null to test every journey against the zones.
+     */
+    public void setZoneGrid(ZoneGrid zoneGrid){
+        this.zoneGrid = zoneGrid;
+    }
+
+    /**
+     * Enables snapping: journeys outside every data zone are treated as lying in the zone whose boundary is
+     * nearest, if one is within the snapper's maximum distance, and are otherwise discarded. Deciding that a
+     * journey is outside every zone needs contains tests against the zones already holding a journey, which
+     * the FIRST aggregation otherwise skips. Without a ZoneGrid nearly every journey pays for them, the contains
+     * tests growing from about one per zone to about one per journey, so use snapping with a ZoneGrid, which
+     * settles most journeys without any test. The other aggregations test every journey already. The snapper
+     * must have been built from the same DataZoneStore, and must be set before any journey is assigned.
+     * @param zoneSnapper - Index of the zone boundaries, or null to drop journeys outside every zone as before.
+     */
+    public void setZoneSnapper(ZoneSnapper zoneSnapper){
+        if (calculated || journeyCount > 0 || pending.size() > 0) {
+            throw new IllegalStateException("The zone snapper must be set before journeys are assigned");
+        }
+        this.zoneSnapper = zoneSnapper;
+        this.snapDistance = zoneSnapper == null ? -1 : zoneSnapper.getMaxDistance();
+    }
+
+    /**
+     * Returns the maximum distance journeys outside every data zone were snapped over, also for a calculation
+     * restored from its results.
+     * @return Distance in metres, -1 if journeys are not snapped.
+     */
+    public double getSnapDistance(){
+        return snapDistance;
+    }
+
+    /**
+     * Sets how the journeys within each data zone are reduced to the travel time the zone is credited with.
+     * By default each zone takes the first journey found within it, in journey order. The other aggregations
+     * reduce every journey within the zone to its minimum, median or maximum travel time, so the result does
+     * not depend on the order of the journeys, and each zone is credited whether or not its journeys also lie in
+     * other zones. Must be set before any journey is assigned.
+     * @param aggregation - Aggregation of the journeys within each zone.
+     */
+    public void setAggregation(Aggregation aggregation){
+        if (calculated || journeyCount > 0 || pending.size() > 0) {
+            throw new IllegalStateException("The aggregation must be set before journeys are assigned");
+        }
+        this.aggregation = aggregation;
+        this.zoneTimes = aggregation == Aggregation.FIRST ? null
+                : new ZoneTravelTimes(dataZones.size(), aggregation);
+    }
+
+    /**
+     * Returns how the journeys within each data zone are reduced to the travel time the zone is credited with.
+     * @return Aggregation of the journeys within each zone.
+     */
+    public Aggregation getAggregation(){
+        return aggregation;
+    }
+
+    /**
+     * Returns the minimum, median and maximum travel time of the journeys within each data zone, performing the
+     * calculation first if needed. Only available when an aggregation other than FIRST has been set, and not for
+     * a calculation restored from its results.
+     * @return ZoneTravelTimes of every data zone, or null if the journeys have not been aggregated.
+     */
+    public ZoneTravelTimes getZoneTravelTimes(){
+        calculate();
+        return zoneTimes;
+    }
+
+    /**
+     * Returns the number of journeys outside every data zone which were snapped to the nearest zone.
+     * @return Number of snapped journeys, 0 unless a ZoneSnapper has been set.
+     */
+    public long getSnappedJourneys(){
+        return snappedJourneys.sum();
+    }
+
+    /**
+     * Returns the number of journeys outside every data zone and too far from any zone to be snapped.
+     * @return Number of discarded journeys, 0 unless a ZoneSnapper has been set.
+     */
+    public long getDiscardedJourneys(){
+        return discardedJourneys.sum();
+    }
+
+    /**
+     * Assigns a journey to the data zone containing it. Journeys are buffered and assigned in chunks,
+     * and their locations are spooled to a temporary file for exporting.
+     * @param journey - Next journey from the inbound/outbound analysis performed.
+     */
+    public void accept(Journey journey){
+        checkAccepting();
+        pending.add(journey);
+        spoolLocation(journey.getLat(), journey.getLon());
+        if (pending.size() >= CHUNK_SIZE) {
+            assignJourneys(pending);
+            pending.clear();
+        }
+    }
+
+    /**
+     * Assigns a batch of journeys following those already accepted, see {@link #accept(Journey)}.
+     * @param batch - Next journeys from the inbound/outbound analysis performed.
+     */
+    public void accept(JourneyBatch batch){
+        checkAccepting();
+        if (pending.size() > 0) {
+            assignJourneys(pending);
+            pending.clear();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            spoolLocation(batch.getLatitudes()[i], batch.getLongitudes()[i]);
+        }
+        assignJourneys(batch);
+    }
+
+    // Checks the calculation is a streaming calculation which has not been performed yet
+    private void checkAccepting(){
+        if (calculated || closed || journeys != null || journeyBatch != null) {
+            throw new IllegalStateException("Journeys can only be accepted before calculating a streaming calculation");
+        }
+    }
+
+    /**
+     * Assigns every journey from the iterator in turn, see {@link #accept(Journey)}.
+     * @param journeys - Iterator over the journeys from the inbound/outbound analysis performed.
+     */
+    public void acceptAll(Iterator<? extends Journey> journeys){
+        while (journeys.hasNext()) {
+            accept(journeys.next());
+        }
+    }
+
+    /**
+     * Assigns every journey from the stream in turn, see {@link #accept(Journey)}.
+     * @param journeys - Stream of the journeys from the inbound/outbound analysis performed.
+     */
+    public void acceptAll(Stream<? extends Journey> journeys){
+        acceptAll(journeys.iterator());
+    }
+
+    /**
+     * Performs the population calculation if it has not already been performed, without printing the results.
+     * For a streaming calculation this assigns any buffered journeys and no more journeys can be accepted.
+     */
+    public void calculate(){
+        if (!calculated) {
+            try {
+                if (journeys != null) {
+                    for (int start = 0; start < journeys.size(); start += CHUNK_SIZE) {
+                        assignJourneys(JourneyBatch.of(journeys.subList(start,
+                                Math.min(start + CHUNK_SIZE, journeys.size()))));
+                    }
+                } else if (journeyBatch != null) {
+                    assignJourneys(journeyBatch);
+                } else {
+                    assignJourneys(pending);
+                    pending.clear();
+                    closeSpool();
+                }
+            } finally {
+                shutdownPool();
+            }
+            if (zoneTimes != null) {
+                useZoneTravelTimes();
+            }
+            calculatePopulations();
+            calculated = true;
+        }
+    }
+
+    // Returns the workers chunks are assigned with, starting them for the first chunk
+    private ForkJoinPool getPool(){
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    // Shuts down the workers once no more journeys can be assigned
+    private void shutdownPool(){
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Writes the results of the calculation, performing it first if needed, so that they can be restored with
+     * {@link #readResults(DataZoneStore, DataInput)} without the journeys. Only the maximum travel time in
+     * minutes and bin width, the aggregation, the snapping distance with the number of journeys snapped and
+     * discarded, and the journey credited to each data zone are written.
+     * @param out - Output the results are written to.
+     * @throws IOException If the results cannot be written.
+     */
+    public void writeResults(DataOutput out) throws IOException {
+        calculate();
+        out.writeInt(endNum * calculationConstant);
+        out.writeInt(bin);
+        out.writeInt(aggregation.ordinal());
+        out.writeDouble(snapDistance);
+        out.writeLong(getSnappedJourneys());
+        out.writeLong(getDiscardedJourneys());
+        out.writeInt(getJourneyCount());
+        out.writeInt(firstJourneys.length);
+        for (int zone = 0; zone < firstJourneys.length; zone++) {
+            out.writeInt(firstJourneys[zone]);
+            out.writeInt(firstMinutes[zone]);
+            out.writeDouble(firstLats[zone]);
+            out.writeDouble(firstLons[zone]);
+        }
+    }
+
+    /**
+     * Restores a calculation written by {@link #writeResults(DataOutput)}. Every result is available except the
+     * locations of all journeys, getList and forEachLocation fail as the journeys are not held.
+     * @param dataZones - DataZoneStore the calculation was performed over.
+     * @param in - Input the results are read from.
+     * @return Performed PopulationCalculation.
+     * @throws IOException If the results cannot be read or were written for a different number of data zones.
+     */
+    public static PopulationCalculation readResults(DataZoneStore dataZones, DataInput in) throws IOException {
+        int maxTravelTime = in.readInt();
+        int bin = in.readInt();
+        PopulationCalculation calculation = new PopulationCalculation(dataZones, Duration.ofMinutes(maxTravelTime),
+                bin);
+        int aggregation = in.readInt();
+        if (aggregation < 0 || aggregation >= Aggregation.values().length) {
+            throw new IOException("Unknown aggregation " + aggregation);
+        }
+        calculation.aggregation = Aggregation.values()[aggregation];
+        calculation.snapDistance = in.readDouble();
+        calculation.snappedJourneys.add(in.readLong());
+        calculation.discardedJourneys.add(in.readLong());
+        calculation.journeyCount = in.readInt();
+        int zones = in.readInt();
+        if (zones != dataZones.size()) {
+            throw new IOException("Results are for " + zones + " data zones, not " + dataZones.size());
+        }
+        for (int zone = 0; zone < zones; zone++) {
+            calculation.firstJourneys[zone] = in.readInt();
+            calculation.firstMinutes[zone] = in.readInt();
+            calculation.firstLats[zone] = in.readDouble();
+            calculation.firstLons[zone] = in.readDouble();
+        }
+        calculation.calculatePopulations();
+        calculation.calculated = true;
+        calculation.restored = true;
+        return calculation;
     }
 
     /**
      * Prints the population for each Journey duration interval along with the total population for the journey.
      */
     public void print(){
-        setBins();
-        printPopulations(map2020,"2020 Population Calculation");
-        System.out.println();
-        printPopulations(map2016,"2016 Population Calculation");
+        calculate();
+        new PopulationHistogram(bin, population2020Bins, population2016Bins).print();
+        if (aggregation != Aggregation.FIRST) {
+            System.out.println("Each data zone is credited with the " + aggregation.name().toLowerCase() +
+                    " travel time of the journeys within it.");
+        }
+        if (zoneSnapper != null) {
+            System.out.println(getSnappedJourneys() + " journeys outside every data zone were snapped to a zone " +
+                    "within " + zoneSnapper.getMaxDistance() + " m, " + getDiscardedJourneys() +
+                    " were discarded.");
+        }
+    }
+
+    /**
+     * Produces the population of each travel time interval for several bin widths from the zones already
+     * assigned, performing the calculation first if needed. Each histogram equals the populations of a
+     * calculation created with that bin width, and all are filled in a single pass over the credited zones.
+     * @param binWidths - Time increments in minutes, such as 5, 10, 15, 30 and 60.
+     * @return PopulationHistogram for each bin width, in the order given.
+     */
+    @SuppressWarnings("try")
+    public PopulationHistogram[] rebin(int... binWidths){
+        calculate();
+        try (RunMetrics.Timer timer = RunMetrics.time("rebin")) {
+            return rebinRecords(binWidths);
+        }
+    }
+
+    // Fills a histogram for each bin width from the records of credited zones
+    private PopulationHistogram[] rebinRecords(int[] binWidths){
+        int widths = binWidths.length;
+        int[] bins = new int[widths];
+        long[][] population2020 = new long[widths][];
+        long[][] population2016 = new long[widths][];
+        for (int i = 0; i < widths; i++) {
+            if (binWidths[i] <= 0) {
+                throw new IllegalArgumentException("Bin width must be positive: " + binWidths[i]);
+            }
+            bins[i] = endNum > 0 ? (endNum + binWidths[i] - 1) / binWidths[i] : 0;
+            population2020[i] = new long[bins[i]];
+            population2016[i] = new long[bins[i]];
+        }
+        for (int record = 0; record < recordCount; record++) {
+            int travelTime = recordMinutes[record];
+            for (int i = 0; i < widths; i++) {
+                int index = travelTime <= binWidths[i] ? 0 : (travelTime - 1) / binWidths[i];
+                if (index < bins[i]) {
+                    population2020[i][index] += recordPopulation2020[record];
+                    population2016[i][index] += recordPopulation2016[record];
+                }
+            }
+        }
+        PopulationHistogram[] histograms = new PopulationHistogram[widths];
+        for (int i = 0; i < widths; i++) {
+            histograms[i] = new PopulationHistogram(binWidths[i], population2020[i], population2016[i]);
+        }
+        return histograms;
     }
 
     // Determines if inbound or outbound reachability analysis has been performed.
@@ -55,64 +538,529 @@ public class PopulationCalculation {
         }
     }
 
-    // Prints the contents of the passed HashMap
-    private void printPopulations(HashMap<Integer, Integer> map, String yearPopulation){
-        int totalPopulation = 0;
-        TreeMap<Integer, Integer> sorted = new TreeMap<>();
-        sorted.putAll(map);
-        System.out.println(yearPopulation);
-        for (Map.Entry<Integer, Integer> entry : sorted.entrySet()) {
-            totalPopulation += entry.getValue();
-            System.out.println("In " + entry.getKey() +
-                    " minutes or under " + entry.getValue() +
-                    " can make the journey.");
+    // Sets the number of travel time interval bins needed to reach endNum and allocates their accumulators
+    private void setBins(){
+        numBins = endNum > 0 ? (endNum + bin - 1) / bin : 0;
+        population2020Bins = new long[numBins];
+        population2016Bins = new long[numBins];
+    }
+
+    // Returns the index of the interval bin holding the travel time, -1 if it is beyond the last bin
+    private int binIndex(int travelTime){
+        int index = travelTime <= bin ? 0 : (travelTime - 1) / bin;
+        return index < numBins ? index : -1;
+    }
+
+    // Calculates population for each data zone from the first journey found within it
+    @SuppressWarnings("try")
+    private void calculatePopulations() {
+        try (RunMetrics.Timer timer = RunMetrics.time("binning")) {
+            creditZones();
+        }
+        int hit = 0;
+        int credited = 0;
+        BitSet distinctJourneys = new BitSet();
+        for (int zone = 0; zone < dataZones.size(); zone++) {
+            if (firstJourneys[zone] >= 0) {
+                hit++;
+                distinctJourneys.set(firstJourneys[zone]);
+            }
+            if (zoneJourneys[zone] >= 0) {
+                credited++;
+            }
         }
-        System.out.println("A total of " + totalPopulation +
-                " can make the journey.");
+        zonesHit.add(hit);
+        zonesCredited.add(credited);
+        journeysCredited.add(distinctJourneys.cardinality());
+        journeysNotCredited.add(journeyCount - distinctJourneys.cardinality());
     }
 
-    // Sets the travel time interval bins for HashMaps and ArrayList
-    private void setBins(){
-        int startNum = 0;
-        while (startNum < endNum) {
-            startNum += this.bin;
-            map2020.put(startNum, 0);
-            map2016.put(startNum,0);
-            travelTimeBins.add(startNum);
+    // Takes the journey credited to each data zone, and its travel time, from the aggregated journeys
+    private void useZoneTravelTimes() {
+        int[] journeys = zoneTimes.getJourneys();
+        for (int zone = 0; zone < journeys.length; zone++) {
+            if (journeys[zone] >= 0) {
+                firstJourneys[zone] = journeys[zone];
+                firstMinutes[zone] = zoneTimes.getTravelTime(zone) * calculationConstant;
+                firstLats[zone] = zoneTimes.getLats()[zone];
+                firstLons[zone] = zoneTimes.getLons()[zone];
+            }
         }
-        calculatePopulations();
     }
 
-    // Calculates population for each data zone
-    private void calculatePopulations() {
-        for (DataZone dataZone : dataZones) {
-            for (Journey journey : journeys) {
-                checkZone(dataZone,journey);
+    // Credits each data zone with the journey found within it, in zone order
+    private void creditZones() {
+        recordCount = 0;
+        recordMinutes = new int[dataZones.size()];
+        recordPopulation2020 = new int[dataZones.size()];
+        recordPopulation2016 = new int[dataZones.size()];
+        for (int zone = 0; zone < dataZones.size(); zone++) {
+            if (firstJourneys[zone] >= 0) {
+                checkJourney(zone);
             }
         }
     }
 
-    // Determines if journey is contained within data zone
-    private void checkZone(DataZone dataZone,Journey journey){
-        if (dataZone.contains(journey.getLat(),journey.getLon())
-                && !checkDataZones.contains(dataZone.getName())) {
-            checkDataZones.add(dataZone.getName());
-            checkJourney(dataZone,journey);
+    // Records the first journey found within each data zone for a chunk of journeys following those already seen
+    @SuppressWarnings("try")
+    private void assignJourneys(JourneyBatch chunk) {
+        try (RunMetrics.Timer timer = RunMetrics.time("assignment")) {
+            assignChunk(chunk);
         }
+        journeysAssigned.add(chunk.size());
     }
 
-    // Determines which travel time interval bin the journey belongs to
-    private void checkJourney(DataZone dataZone, Journey journey){
-        for(Integer bin: travelTimeBins){
-            if ((journey.getDuration()*calculationConstant) <= bin
-                    && !checkJourneys.contains(journey)) {
-                checkJourneys.add(journey);
-                map2020.put(bin, map2020.get(bin) +
-                        dataZone.getPopulation2020());
-                map2016.put(bin, map2016.get(bin) +
-                        dataZone.getPopulation2016());
+    // Merges the first journeys within each data zone found for a chunk into those already found
+    @SuppressWarnings("try")
+    private void assignChunk(JourneyBatch chunk) {
+        int[] order = null;
+        JourneyBatch ordered = chunk;
+        if (hilbertOrder) {
+            try (RunMetrics.Timer timer = RunMetrics.time("hilbertSort")) {
+                order = dataZones.sortAlongHilbertCurve(chunk.getLatitudes(), chunk.getLongitudes(), chunk.size());
+                ordered = reorder(chunk, order);
             }
         }
+        if (zoneTimes != null) {
+            aggregateChunk(ordered, order);
+            journeyCount += chunk.size();
+            return;
+        }
+        int[] chunkFirstJourneys;
+        if (parallelism > 1) {
+            chunkFirstJourneys = getPool().invoke(new FirstJourneyTask(ordered, order, 0, chunk.size()));
+        } else {
+            chunkFirstJourneys = findFirstJourneys(ordered, order, 0, chunk.size());
+        }
+        for (int zone = 0; zone < chunkFirstJourneys.length; zone++) {
+            if (firstJourneys[zone] < 0 && chunkFirstJourneys[zone] >= 0) {
+                int journey = chunkFirstJourneys[zone];
+                firstJourneys[zone] = journeyCount + journey;
+                firstMinutes[zone] = chunk.getMinutes()[journey];
+                firstLats[zone] = chunk.getLatitudes()[journey];
+                firstLons[zone] = chunk.getLongitudes()[journey];
+            }
+        }
+        journeyCount += chunk.size();
+    }
+
+    // Copies the chunk's journeys into the given order
+    private static JourneyBatch reorder(JourneyBatch chunk, int[] order) {
+        double[] lats = new double[order.length];
+        double[] lons = new double[order.length];
+        int[] minutes = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            lats[i] = chunk.getLatitudes()[order[i]];
+            lons[i] = chunk.getLongitudes()[order[i]];
+            minutes[i] = chunk.getMinutes()[order[i]];
+        }
+        return new JourneyBatch(lats, lons, minutes);
+    }
+
+    // Whether the zone already holds a journey earlier in the chunk than the given one
+    private static boolean holdsEarlier(int[] firstJourneys, int zone, int journey) {
+        return firstJourneys[zone] >= 0 && firstJourneys[zone] < journey;
+    }
+
+    // Finds the first journey within each data zone for the chunk's journeys from index from (inclusive)
+    // to to (exclusive), returning indices within the chunk. If the journeys have been reordered, order holds
+    // the chunk index of each journey and the lowest index within a zone is kept whatever order it is found in.
+    // Journeys in grid cells owned by one zone resolve without a contains test, the rest are only tested against
+    // the zones whose bounding box covers them. Journeys are tested one at a time even with the vector engine, as
+    // skipping the zones claimed by earlier journeys saves more than testing them in batches would.
+    private int[] findFirstJourneys(JourneyBatch chunk, int[] order, int from, int to) {
+        int[] firstJourneys = new int[dataZones.size()];
+        Arrays.fill(firstJourneys, -1);
+        double[] lats = chunk.getLatitudes();
+        double[] lons = chunk.getLongitudes();
+        int resolved = 0;
+        int empty = 0;
+        boolean[] claimed = new boolean[1];
+        for (int j = from; j < to; j++) {
+            double lat = lats[j];
+            double lon = lons[j];
+            int journeyIndex = order == null ? j : order[j];
+            int owner = zoneGrid == null ? ZoneGrid.BOUNDARY : zoneGrid.lookup(lat, lon);
+            if (owner >= 0) {
+                if (!holdsEarlier(firstJourneys, owner, journeyIndex)) {
+                    firstJourneys[owner] = journeyIndex;
+                }
+                resolved++;
+                continue;
+            } else if (owner == ZoneGrid.EMPTY) {
+                empty++;
+                if (zoneSnapper != null) {
+                    int zone = snapJourney(lat, lon);
+                    if (zone >= 0 && !holdsEarlier(firstJourneys, zone, journeyIndex)) {
+                        firstJourneys[zone] = journeyIndex;
+                    }
+                }
+                continue;
+            }
+            claimed[0] = false;
+            dataZones.getIndex().query(lat, lon, zone -> {
+                if (!holdsEarlier(firstJourneys, zone, journeyIndex) && dataZones.contains(zone, lat, lon)) {
+                    firstJourneys[zone] = journeyIndex;
+                    claimed[0] = true;
+                }
+            });
+            if (zoneSnapper != null && !claimed[0]) {
+                // Only zones which already hold an earlier journey are left to be tested
+                dataZones.getIndex().query(lat, lon, zone -> {
+                    if (!claimed[0] && holdsEarlier(firstJourneys, zone, journeyIndex) &&
+                            dataZones.contains(zone, lat, lon)) {
+                        claimed[0] = true;
+                    }
+                });
+                if (!claimed[0]) {
+                    int zone = snapJourney(lat, lon);
+                    if (zone >= 0 && !holdsEarlier(firstJourneys, zone, journeyIndex)) {
+                        firstJourneys[zone] = journeyIndex;
+                    }
+                }
+            }
+        }
+        journeysResolvedByGrid.add(resolved);
+        journeysInEmptyCells.add(empty);
+        journeysTested.add(to - from - resolved - empty);
+        return firstJourneys;
+    }
+
+    // Returns the zone with the nearest boundary to a journey outside every data zone, or -1 to discard it
+    private int snapJourney(double lat, double lon) {
+        int zone = zoneSnapper.snap(lat, lon);
+        if (zone < 0) {
+            discardedJourneys.increment();
+            journeysDiscardedTotal.increment();
+        } else {
+            snappedJourneys.increment();
+            journeysSnappedTotal.increment();
+        }
+        return zone;
+    }
+
+    // Adds the travel time of every journey in a chunk following those already seen to each zone containing it
+    private void aggregateChunk(JourneyBatch chunk, int[] order) {
+        if (parallelism > 1) {
+            zoneTimes.merge(getPool().invoke(new AggregateTask(chunk, order, 0, chunk.size())));
+        } else {
+            aggregateJourneys(chunk, order, 0, chunk.size(), zoneTimes);
+        }
+    }
+
+    // Adds the chunk's journeys from index from (inclusive) to to (exclusive) to every zone containing them.
+    // Unlike findFirstJourneys every candidate zone is tested, as zones already holding a journey still take
+    // the travel times of later ones. If the journeys have been reordered, order holds the chunk index of each.
+    private void aggregateJourneys(JourneyBatch chunk, int[] order, int from, int to, ZoneTravelTimes times) {
+        if (DataZone.getContainsEngine() == DataZone.ContainsEngine.VECTOR) {
+            aggregateJourneysInBatches(chunk, order, from, to, times);
+            return;
+        }
+        double[] lats = chunk.getLatitudes();
+        double[] lons = chunk.getLongitudes();
+        int[] minutes = chunk.getMinutes();
+        int resolved = 0;
+        int empty = 0;
+        int matched = 0;
+        boolean[] claimed = new boolean[1];
+        for (int j = from; j < to; j++) {
+            double lat = lats[j];
+            double lon = lons[j];
+            int travelTime = minutes[j] * calculationConstant;
+            int journeyIndex = journeyCount + (order == null ? j : order[j]);
+            int owner = zoneGrid == null ? ZoneGrid.BOUNDARY : zoneGrid.lookup(lat, lon);
+            if (owner >= 0) {
+                times.add(owner, travelTime, journeyIndex, lat, lon);
+                resolved++;
+                matched++;
+                continue;
+            }
+            claimed[0] = false;
+            if (owner == ZoneGrid.EMPTY) {
+                empty++;
+            } else {
+                dataZones.getIndex().query(lat, lon, zone -> {
+                    if (dataZones.contains(zone, lat, lon)) {
+                        times.add(zone, travelTime, journeyIndex, lat, lon);
+                        claimed[0] = true;
+                    }
+                });
+            }
+            if (!claimed[0] && zoneSnapper != null) {
+                int zone = snapJourney(lat, lon);
+                if (zone >= 0) {
+                    times.add(zone, travelTime, journeyIndex, lat, lon);
+                    claimed[0] = true;
+                }
+            }
+            if (claimed[0]) {
+                matched++;
+            }
+        }
+        journeysResolvedByGrid.add(resolved);
+        journeysInEmptyCells.add(empty);
+        journeysTested.add(to - from - resolved - empty);
+        journeysMatched.add(matched);
+        journeysUnmatched.add(to - from - matched);
+    }
+
+    // Aggregates the journeys as aggregateJourneys does, but tests the journeys left undecided by the grid zone by
+    // zone, each zone's candidate journeys together, so the vector engine tests several journeys per instruction.
+    // The order journeys are added to a zone does not change its travel time.
+    private void aggregateJourneysInBatches(JourneyBatch chunk, int[] order, int from, int to,
+                                            ZoneTravelTimes times) {
+        double[] lats = chunk.getLatitudes();
+        double[] lons = chunk.getLongitudes();
+        int[] minutes = chunk.getMinutes();
+        int resolved = 0;
+        int empty = 0;
+        int matched = 0;
+        // Whether each journey was resolved by the grid or found within a zone
+        boolean[] claimed = new boolean[to - from];
+        CandidateBatch candidates = new CandidateBatch();
+        for (int j = from; j < to; j++) {
+            double lat = lats[j];
+            double lon = lons[j];
+            int owner = zoneGrid == null ? ZoneGrid.BOUNDARY : zoneGrid.lookup(lat, lon);
+            if (owner >= 0) {
+                times.add(owner, minutes[j] * calculationConstant, journeyCount + (order == null ? j : order[j]),
+                        lat, lon);
+                claimed[j - from] = true;
+                resolved++;
+            } else if (owner == ZoneGrid.EMPTY) {
+                empty++;
+            } else {
+                int journey = j;
+                dataZones.getIndex().query(lat, lon, zone -> candidates.add(journey, zone));
+            }
+        }
+        candidates.test(dataZones, lats, lons);
+        for (int zone = 0; zone < dataZones.size(); zone++) {
+            for (int i = candidates.zoneStarts[zone]; i < candidates.zoneStarts[zone + 1]; i++) {
+                if (candidates.inside[i]) {
+                    int j = candidates.journeys[i];
+                    times.add(zone, minutes[j] * calculationConstant, journeyCount + (order == null ? j : order[j]),
+                            lats[j], lons[j]);
+                    claimed[j - from] = true;
+                }
+            }
+        }
+        for (int j = from; j < to; j++) {
+            if (!claimed[j - from] && zoneSnapper != null) {
+                int zone = snapJourney(lats[j], lons[j]);
+                if (zone >= 0) {
+                    times.add(zone, minutes[j] * calculationConstant, journeyCount + (order == null ? j : order[j]),
+                            lats[j], lons[j]);
+                    claimed[j - from] = true;
+                }
+            }
+            if (claimed[j - from]) {
+                matched++;
+            }
+        }
+        journeysResolvedByGrid.add(resolved);
+        journeysInEmptyCells.add(empty);
+        journeysTested.add(to - from - resolved - empty);
+        journeysMatched.add(matched);
+        journeysUnmatched.add(to - from - matched);
+    }
+
+    // Pairs of a journey and a zone it is to be tested against, grouped by zone once gathered so the journeys
+    // of each zone are tested as one batch. The pairs of zone z are at zoneStarts[z] to zoneStarts[z + 1] - 1.
+    private static class CandidateBatch {
+        private int[] pairJourneys = new int[1024];
+        private int[] pairZones = new int[1024];
+        private int pairs;
+        private int[] zoneStarts;
+        private int[] journeys;
+        private boolean[] inside;
+
+        // Adds a journey, by its index in the chunk, to be tested against a zone
+        void add(int journey, int zone) {
+            if (pairs == pairJourneys.length) {
+                pairJourneys = Arrays.copyOf(pairJourneys, pairs * 2);
+                pairZones = Arrays.copyOf(pairZones, pairs * 2);
+            }
+            pairJourneys[pairs] = journey;
+            pairZones[pairs++] = zone;
+        }
+
+        // Groups the pairs by zone, keeping the journeys of each zone in the order they were added, and tests
+        // the journeys of each zone together
+        void test(DataZoneStore dataZones, double[] lats, double[] lons) {
+            zoneStarts = new int[dataZones.size() + 1];
+            for (int i = 0; i < pairs; i++) {
+                zoneStarts[pairZones[i] + 1]++;
+            }
+            for (int zone = 0; zone < dataZones.size(); zone++) {
+                zoneStarts[zone + 1] += zoneStarts[zone];
+            }
+            int[] next = Arrays.copyOf(zoneStarts, dataZones.size());
+            journeys = new int[pairs];
+            for (int i = 0; i < pairs; i++) {
+                journeys[next[pairZones[i]]++] = pairJourneys[i];
+            }
+            double[] zoneLats = new double[pairs];
+            double[] zoneLons = new double[pairs];
+            for (int i = 0; i < pairs; i++) {
+                zoneLats[i] = lats[journeys[i]];
+                zoneLons[i] = lons[journeys[i]];
+            }
+            inside = new boolean[pairs];
+            for (int zone = 0; zone < dataZones.size(); zone++) {
+                if (zoneStarts[zone] < zoneStarts[zone + 1]) {
+                    dataZones.contains(zone, zoneLats, zoneLons, zoneStarts[zone], zoneStarts[zone + 1], inside);
+                }
+            }
+        }
+    }
+
+    // Splits a range of journeys between workers, each aggregating into its own ZoneTravelTimes
+    private class AggregateTask extends RecursiveTask<ZoneTravelTimes> {
+        private static final long serialVersionUID = 1L;
+
+        private JourneyBatch chunk;
+        private int[] order;
+        private int from;
+        private int to;
+
+        AggregateTask(JourneyBatch chunk, int[] order, int from, int to) {
+            this.chunk = chunk;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ZoneTravelTimes compute() {
+            if (to - from <= Math.max(MIN_TASK_SIZE, chunk.size() / (parallelism * 8))) {
+                ZoneTravelTimes times = new ZoneTravelTimes(dataZones.size(), aggregation);
+                aggregateJourneys(chunk, order, from, to, times);
+                return times;
+            }
+            int middle = (from + to) >>> 1;
+            AggregateTask left = new AggregateTask(chunk, order, from, middle);
+            left.fork();
+            ZoneTravelTimes second = new AggregateTask(chunk, order, middle, to).compute();
+            ZoneTravelTimes first = left.join();
+            first.merge(second);
+            return first;
+        }
+    }
+
+    // Splits a range of journeys between workers, each filling its own array of first journeys.
+    // Arrays are merged keeping the lower journey index so the result matches the serial calculation.
+    private class FirstJourneyTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private JourneyBatch chunk;
+        private int[] order;
+        private int from;
+        private int to;
+
+        FirstJourneyTask(JourneyBatch chunk, int[] order, int from, int to) {
+            this.chunk = chunk;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= Math.max(MIN_TASK_SIZE, chunk.size() / (parallelism * 8))) {
+                return findFirstJourneys(chunk, order, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            FirstJourneyTask left = new FirstJourneyTask(chunk, order, from, middle);
+            left.fork();
+            int[] second = new FirstJourneyTask(chunk, order, middle, to).compute();
+            int[] first = left.join();
+            for (int i = 0; i < first.length; i++) {
+                if (first[i] < 0 || (second[i] >= 0 && second[i] < first[i])) {
+                    first[i] = second[i];
+                }
+            }
+            return first;
+        }
+    }
+
+    // Determines which travel time interval bin the zone's first journey belongs to and records the assignment.
+    // A journey lying in several zones is only credited to the first of them. Zones sharing a journey share its
+    // travel time, so crediting the journey when it is beyond the last bin leaves the results unchanged and
+    // makes the record of credited zones independent of the bin width. Aggregated zones are always credited.
+    private void checkJourney(int zone){
+        if (aggregation == Aggregation.FIRST) {
+            if (creditedJourneys.get(firstJourneys[zone])) {
+                return;
+            }
+            creditedJourneys.set(firstJourneys[zone]);
+        }
+        int travelTime = firstMinutes[zone] * calculationConstant;
+        recordMinutes[recordCount] = travelTime;
+        recordPopulation2020[recordCount] = dataZones.getPopulation2020()[zone];
+        recordPopulation2016[recordCount] = dataZones.getPopulation2016()[zone];
+        recordCount++;
+        int index = binIndex(travelTime);
+        if (index >= 0) {
+            zoneJourneys[zone] = firstJourneys[zone];
+            population2020Bins[index] += dataZones.getPopulation2020()[zone];
+            population2016Bins[index] += dataZones.getPopulation2016()[zone];
+        }
+    }
+
+    /**
+     * Returns the DataZoneStore the calculation was performed over.
+     * @return DataZoneStore holding the data zones referred to by zone ids.
+     */
+    public DataZoneStore getDataZoneStore(){
+        return dataZones;
+    }
+
+    /**
+     * Returns the journey credited to each data zone, indexed by zone id.
+     * @return Array of journey indices, -1 where no journey has been credited to the zone.
+     */
+    public int[] getZoneJourneys(){
+        return zoneJourneys;
+    }
+
+    /**
+     * Returns the data zone id each journey has been credited to, indexed by the position of the journey in the
+     * Journey list, or the order journeys were accepted in. The array is created from getZoneJourneys on each call.
+     * @return Array of data zone ids, -1 where the journey has not been used in the population calculation.
+     */
+    public int[] getJourneyZones(){
+        int[] journeyZones = new int[journeyCount];
+        Arrays.fill(journeyZones, -1);
+        for(int zone = 0; zone < zoneJourneys.length; zone++){
+            if(zoneJourneys[zone] >= 0){
+                journeyZones[zoneJourneys[zone]] = zone;
+            }
+        }
+        return journeyZones;
+    }
+
+    /**
+     * Returns the number of journeys the calculation has received.
+     * @return Number of journeys.
+     */
+    public int getJourneyCount(){
+        if (journeys != null) {
+            return journeys.size();
+        }
+        return journeyBatch != null ? journeyBatch.size() : journeyCount + pending.size();
+    }
+
+    /**
+     * Returns the travel time in minutes of the journey credited to each data zone, indexed by zone id.
+     * @return Array of travel times, NaN where no journey has been credited to the zone.
+     */
+    public double[] getZoneDurations(){
+        double[] durations = new double[zoneJourneys.length];
+        for(int zone = 0; zone < zoneJourneys.length; zone++){
+            durations[zone] = zoneJourneys[zone] >= 0 ? Math.abs((double) firstMinutes[zone]) : Double.NaN;
+        }
+        return durations;
     }
 
     /**
@@ -122,16 +1070,10 @@ public class PopulationCalculation {
      */
     public HashMap<String,Double> getMap(){
         HashMap<String,Double> map = new HashMap<>();
-        ArrayList<DataZone> theseZones = getDataZoneList();
-        for(DataZone dataZone: theseZones){
-            for(Journey journey: checkJourneys){
-                if(dataZone.contains(journey.getLat(),journey.getLon())){
-                    if(journey.getDuration() < 0){
-                        map.put(dataZone.getName(),journey.getDuration() * -1);
-                    } else {
-                        map.put(dataZone.getName(),journey.getDuration());
-                    }
-                }
+        double[] durations = getZoneDurations();
+        for(int zone = 0; zone < durations.length; zone++){
+            if(zoneJourneys[zone] >= 0){
+                map.put(dataZones.getName(zone),durations[zone]);
             }
         }
         return map;
@@ -142,17 +1084,7 @@ public class PopulationCalculation {
      * @return HashMap, key = SIMD data zone, value = 2020 geographical access score
      */
     public HashMap<String,Integer> getGeoAcessMap2020(){
-        HashMap<String,Integer> map = new HashMap<>();
-        ArrayList<DataZone> theseZones = getDataZoneList();
-
-        for(DataZone dataZone: theseZones){
-            for(Journey journey: checkJourneys){
-                if(dataZone.contains(journey.getLat(),journey.getLon())){
-                    map.put(dataZone.getName(),dataZone.getGeoAccessDomain2020());
-                }
-            }
-        }
-        return map;
+        return getZoneMap(dataZones.getGeoAccessDomain2020());
     }
 
     /**
@@ -160,58 +1092,219 @@ public class PopulationCalculation {
      * @return HashMap, key = SIMD data zone, value = 2016 geographical access score
      */
     public HashMap<String,Integer> getGeoAcessMap2016(){
-        HashMap<String,Integer> map = new HashMap<>();
-        ArrayList<DataZone> theseZones = getDataZoneList();
-
-        for(DataZone dataZone: theseZones){
-            for(Journey journey: checkJourneys){
-                if(dataZone.contains(journey.getLat(),journey.getLon())){
-                    map.put(dataZone.getName(),dataZone.getGeoAccessDomain2016());
-                }
-            }
-        }
-        return map;
+        return getZoneMap(dataZones.getGeoAccessDomain2016());
     }
 
-    // Creates a ArrayList of DataZone objects whose name is contained in the checkZones list
-    private ArrayList<DataZone> getDataZoneList(){
-        ArrayList<DataZone> theseZones = new ArrayList<>();
-        for(DataZone dz: dataZones){
-            for(String zoneName: checkDataZones){
-                if(dz.getName().equals(zoneName) && !theseZones.contains(dz)){
-                    theseZones.add(dz);
-                }
+    // Creates a HashMap from data zone name to the column value for every zone credited with a journey
+    private HashMap<String,Integer> getZoneMap(int[] column){
+        HashMap<String,Integer> map = new HashMap<>();
+        for(int zone = 0; zone < zoneJourneys.length; zone++){
+            if(zoneJourneys[zone] >= 0){
+                map.put(dataZones.getName(zone),column[zone]);
             }
         }
-        return theseZones;
+        return map;
     }
 
     /**
      * Returns an ArrayList containing coordinates of all locations produced by reachability analysis.
+     * This holds every location in memory, forEachLocation visits them without doing so.
      * @return ArrayList containing coordinates of all locations produced by reachability analysis.
      */
     public ArrayList<double[]> getList(){
         ArrayList<double[]> allLocations = new ArrayList<>();
-        for(Journey j: journeys){
-            allLocations.add(new double[]{j.getLat(),j.getLon()});
+        try {
+            forEachLocation((lat, lon) -> allLocations.add(new double[]{lat, lon}));
+        } catch (IOException e) {
+            System.out.println(e);
         }
         return allLocations;
     }
 
+    /**
+     * Visits the coordinates of all locations produced by reachability analysis in order. Locations of a
+     * streaming calculation are read back from its spool file, so they are never all held in memory.
+     * @param visitor - Receives the latitude and longitude of each location.
+     * @throws IOException If the spooled locations cannot be read, or the visitor fails.
+     */
+    public void forEachLocation(LocationVisitor visitor) throws IOException {
+        if (restored) {
+            throw new IOException("Locations are not held by a calculation restored from its results");
+        }
+        if (journeys != null) {
+            for(Journey j: journeys){
+                visitor.visit(j.getLat(), j.getLon());
+            }
+            return;
+        }
+        if (journeyBatch != null) {
+            for (int i = 0; i < journeyBatch.size(); i++) {
+                visitor.visit(journeyBatch.getLatitudes()[i], journeyBatch.getLongitudes()[i]);
+            }
+            return;
+        }
+        if (closed) {
+            throw new IOException("Locations were deleted when the calculation was closed");
+        }
+        if (locationSpool == null) {
+            return;
+        }
+        if (locationSpoolStream != null) {
+            locationSpoolStream.flush();
+        }
+        int spooled = journeyCount + pending.size();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(locationSpool)))) {
+            for (int i = 0; i < spooled; i++) {
+                visitor.visit(in.readDouble(), in.readDouble());
+            }
+        }
+    }
+
+    /**
+     * How the journeys within a data zone are reduced to the travel time the zone is credited with,
+     * see {@link #setAggregation(Aggregation)}.
+     */
+    public enum Aggregation {
+        /** The first journey found within the zone, in journey order. */
+        FIRST,
+        /** The fastest journey within the zone. */
+        MINIMUM,
+        /** The median travel time of the journeys within the zone. */
+        MEDIAN,
+        /** The slowest journey within the zone. */
+        MAXIMUM
+    }
+
+    /**
+     * Receives the coordinates of one location, see {@link #forEachLocation(LocationVisitor)}.
+     */
+    public interface LocationVisitor {
+        void visit(double latitude, double longitude) throws IOException;
+    }
+
+    // Appends the journey location to the spool file, created on the first journey accepted
+    private void spoolLocation(double lat, double lon){
+        try {
+            if (locationSpool == null) {
+                locationSpool = File.createTempFile("locations", ".bin");
+                locationSpool.deleteOnExit();
+                locationSpoolStream = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(locationSpool)));
+            }
+            locationSpoolStream.writeDouble(lat);
+            locationSpoolStream.writeDouble(lon);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes the file the locations of a streaming calculation are spooled to, after which forEachLocation and
+     * getList fail, and shuts down the worker threads of a streaming calculation which was never performed. The
+     * results remain available. Nothing is held for a calculation given its journeys, so closing it has no effect.
+     * @throws IOException If the spool file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        shutdownPool();
+        closeSpool();
+        if (locationSpool != null) {
+            Files.deleteIfExists(locationSpool.toPath());
+            locationSpool = null;
+        }
+    }
+
+    // Closes the spool file once no more journeys can be accepted
+    private void closeSpool(){
+        if (locationSpoolStream != null) {
+            try {
+                locationSpoolStream.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            locationSpoolStream = null;
+        }
+    }
+
+    /**
+     * Returns the width of the travel time interval bins in minutes.
+     * @return Bin width in minutes.
+     */
+    public int getBin(){
+        return bin;
+    }
+
+    /**
+     * Returns the 2020 SIMD population of each travel time interval, index i covering over i * bin
+     * and up to (i + 1) * bin minutes.
+     * @return Array of 2020 populations per interval.
+     */
+    public long[] getPopulation2020Bins(){
+        return population2020Bins;
+    }
+
+    /**
+     * Returns the 2016 SIMD population of each travel time interval, index i covering over i * bin
+     * and up to (i + 1) * bin minutes.
+     * @return Array of 2016 populations per interval.
+     */
+    public long[] getPopulation2016Bins(){
+        return population2016Bins;
+    }
+
+    /**
+     * Returns the 2020 SIMD population able to make the journey in (i + 1) * bin minutes or under.
+     * @return Array of cumulative 2020 populations.
+     */
+    public long[] getCumulativePopulation2020(){
+        return cumulative(population2020Bins);
+    }
+
+    /**
+     * Returns the 2016 SIMD population able to make the journey in (i + 1) * bin minutes or under.
+     * @return Array of cumulative 2016 populations.
+     */
+    public long[] getCumulativePopulation2016(){
+        return cumulative(population2016Bins);
+    }
+
+    // Returns the running total of the interval populations
+    private static long[] cumulative(long[] bins){
+        long[] totals = new long[bins.length];
+        long total = 0;
+        for (int i = 0; i < bins.length; i++) {
+            total += bins[i];
+            totals[i] = total;
+        }
+        return totals;
+    }
+
     /**
      * Returns HashMap containing travel time intervals and corresponding 2020 SIMD population.
-     * @return HashMap, key = travel time interval, value = 2020 SIMD population
+     * Compatibility view of {@link #getPopulation2020Bins()}.
+     * @return HashMap, key = travel time interval upper bound, value = 2020 SIMD population within the interval
      */
     public HashMap<Integer,Integer> getMap2020(){
-        return map2020;
+        return binMap(population2020Bins);
     }
 
     /**
      * Returns HashMap containing travel time intervals and corresponding 2016 SIMD population.
-     * @return HashMap, key = travel time interval, value = 2016 SIMD population
+     * Compatibility view of {@link #getPopulation2016Bins()}.
+     * @return HashMap, key = travel time interval upper bound, value = 2016 SIMD population within the interval
      */
     public HashMap<Integer, Integer> getMap2016(){
-        return map2016;
+        return binMap(population2016Bins);
+    }
+
+    // Creates a HashMap from interval upper bound to population
+    private HashMap<Integer,Integer> binMap(long[] bins){
+        HashMap<Integer,Integer> map = new HashMap<>();
+        for (int i = 0; i < bins.length; i++) {
+            map.put((i + 1) * bin, (int) bins[i]);
+        }
+        return map;
     }
 
     /**
@@ -219,17 +1312,7 @@ public class PopulationCalculation {
      * @return HashMap, key = SIMD data zone, value = 2020 geographical access domain
      */
     public HashMap<String, Integer> getMap2020Rank(){
-        HashMap<String,Integer> map = new HashMap<>();
-        ArrayList<DataZone> theseZones = getDataZoneList();
-
-        for(DataZone dataZone: theseZones){
-            for(Journey journey: checkJourneys){
-                if(dataZone.contains(journey.getLat(),journey.getLon())){
-                    map.put(dataZone.getName(),dataZone.getGeoAccess2020Rank());
-                }
-            }
-        }
-        return map;
+        return getZoneMap(dataZones.getGeoAccess2020Rank());
     }
 
     /**
@@ -238,8 +1321,10 @@ public class PopulationCalculation {
      */
     public ArrayList<double[]> getCheckJourneys(){
         ArrayList<double[]> locations = new ArrayList<>();
-        for(Journey journey: checkJourneys){
-            locations.add(new double[]{journey.getLat(),journey.getLon()});
+        for(int zone = 0; zone < zoneJourneys.length; zone++){
+            if(zoneJourneys[zone] >= 0){
+                locations.add(new double[]{firstLats[zone],firstLons[zone]});
+            }
         }
         return locations;
     }
@@ -0,0 +1,72 @@
+package example;
+
+/**
+ * Populations able to make the journey per travel time interval for one bin width, as produced by
+ * {@link PopulationCalculation#rebin(int...)}. Index i covers over i * bin and up to (i + 1) * bin minutes,
+ * the first interval also holding journeys of 0 minutes or less.
+ */
+public class PopulationHistogram {
+
+    private int bin;
+    private long[] population2020Bins;
+    private long[] population2016Bins;
+
+    /**
+     * Constructor for creating PopulationHistogram.
+     * @param bin - Width of the travel time intervals in minutes.
+     * @param population2020Bins - 2020 SIMD population of each interval.
+     * @param population2016Bins - 2016 SIMD population of each interval.
+     */
+    public PopulationHistogram(int bin, long[] population2020Bins, long[] population2016Bins) {
+        this.bin = bin;
+        this.population2020Bins = population2020Bins;
+        this.population2016Bins = population2016Bins;
+    }
+
+    /**
+     * Returns the width of the travel time intervals in minutes.
+     * @return Bin width in minutes.
+     */
+    public int getBin() {
+        return bin;
+    }
+
+    /**
+     * Returns the 2020 SIMD population of each travel time interval.
+     * @return Array of 2020 populations per interval.
+     */
+    public long[] getPopulation2020Bins() {
+        return population2020Bins;
+    }
+
+    /**
+     * Returns the 2016 SIMD population of each travel time interval.
+     * @return Array of 2016 populations per interval.
+     */
+    public long[] getPopulation2016Bins() {
+        return population2016Bins;
+    }
+
+    /**
+     * Prints the population for each interval along with the cumulative population, for both years.
+     */
+    public void print() {
+        printPopulations(population2020Bins, "2020 Population Calculation");
+        System.out.println();
+        printPopulations(population2016Bins, "2016 Population Calculation");
+    }
+
+    // Prints the population of each travel time interval along with the cumulative population
+    private void printPopulations(long[] bins, String yearPopulation) {
+        long totalPopulation = 0;
+        System.out.println(yearPopulation);
+        for (int i = 0; i < bins.length; i++) {
+            totalPopulation += bins[i];
+            System.out.println("Over " + (i * bin) + " and up to " + ((i + 1) * bin) +
+                    " minutes " + bins[i] + " can make the journey, " +
+                    totalPopulation + " in " + ((i + 1) * bin) + " minutes or under.");
+        }
+        System.out.println("A total of " + totalPopulation +
+                " can make the journey.");
+    }
+}
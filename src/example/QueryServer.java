@@ -0,0 +1,482 @@
+package example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers population calculations over HTTP on localhost, holding the data zones in memory so each query only
+ * pays for its calculation. Journeys are posted to /calculate, either as CSV lines of latitude, longitude and
+ * minutes or as a binary body of the same three values per journey (two big endian doubles and an int), and
+ * the populations per travel time interval and the per-zone results are returned as JSON. The query string
+ * gives maxTravelTime in minutes as in the batch job file, or as an ISO-8601 duration such as PT1H30M (negative
+ * for inbound), and optionally bin in minutes (30 by default) and aggregation (FIRST by default), and
+ * snapDistance in metres to snap journeys outside every data zone to the nearest zone boundary within that
+ * distance instead of dropping them. A CSV body may start with a header line holding no numbers. Bodies larger
+ * than the maximum body size are refused with 413. At most a fixed number of calculations run at once, further
+ * requests are refused with 503 so callers can retry. A calculation which fails is answered with 500 and a
+ * fixed message, the cause being logged. GET /metrics returns the run metrics along with a histogram of
+ * request latencies.
+ */
+public class QueryServer {
+
+    private static final int DEFAULT_BIN = 30;
+    // Bytes per journey in a binary body: latitude, longitude and minutes
+    private static final int BINARY_JOURNEY_BYTES = 20;
+    // Largest request body read by default, over three million binary journeys
+    private static final long DEFAULT_MAX_BODY_BYTES = 64L << 20;
+    // Upper bounds in milliseconds of the latency histogram buckets, the last bucket holding slower requests
+    private static final long[] LATENCY_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private DataZoneStore dataZones;
+    private ZoneGrid zoneGrid;
+    // Index of the zone boundaries, built by the first query which snaps journeys
+    private ZoneSnapper zoneSnapper;
+    private HttpServer server;
+    private ExecutorService executor;
+    private Semaphore calculations;
+    private volatile long maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+    private LongAdder[] latencies = new LongAdder[LATENCY_BOUNDS.length + 1];
+
+    /**
+     * Creates the server over data zones already loaded, it does not accept requests until started.
+     * @param dataZones - DataZoneStore shared by every query.
+     * @param zoneGrid - Grid over the data zones used by every query, or null to test journeys against the zones.
+     * @param port - Port to listen on at the loopback address, 0 to choose a free port.
+     * @param maxConcurrent - Maximum number of calculations run at the same time.
+     * @throws IOException If the port cannot be bound.
+     */
+    public QueryServer(DataZoneStore dataZones, ZoneGrid zoneGrid, int port, int maxConcurrent) throws IOException {
+        this.dataZones = dataZones;
+        this.zoneGrid = zoneGrid;
+        this.calculations = new Semaphore(Math.max(1, maxConcurrent));
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LongAdder();
+        }
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // Threads beyond the calculation limit answer refusals and metrics while calculations run
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrent) + 2);
+        server.setExecutor(executor);
+        server.createContext("/calculate", this::handleCalculate);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * Sets the largest request body read, larger bodies are refused with 413 before the journeys are read.
+     * @param maxBodyBytes - Maximum body size in bytes, 64 MiB by default.
+     */
+    public void setMaxBodyBytes(long maxBodyBytes) {
+        if (maxBodyBytes <= 0) {
+            throw new IllegalArgumentException("The maximum body size must be positive");
+        }
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Starts accepting requests on a background thread.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to the given time for requests in progress to finish.
+     * @param delaySeconds - Seconds to wait for requests in progress.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     * @return Port at the loopback address.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Performs a calculation over the posted journeys
+    @SuppressWarnings("try")
+    private void handleCalculate(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Journeys must be posted");
+                return;
+            }
+            long limit = maxBodyBytes;
+            if (contentLength(exchange) > limit) {
+                RunMetrics.count("queriesTooLarge", 1);
+                sendError(exchange, 413, "Request body is larger than " + limit + " bytes");
+                return;
+            }
+            if (!calculations.tryAcquire()) {
+                RunMetrics.count("queriesRefused", 1);
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "Too many queries in progress");
+                return;
+            }
+            try (RunMetrics.Timer timer = RunMetrics.time("query")) {
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                String json;
+                try {
+                    json = calculate(exchange, parameters, limit);
+                } catch (BodyTooLargeException e) {
+                    RunMetrics.count("queriesTooLarge", 1);
+                    sendError(exchange, 413, e.getMessage());
+                    return;
+                } catch (IllegalArgumentException e) {
+                    RunMetrics.count("queriesRejected", 1);
+                    sendError(exchange, 400, e.getMessage());
+                    return;
+                } catch (RuntimeException e) {
+                    RunMetrics.count("queryErrors", 1);
+                    System.out.println("Query failed: " + e);
+                    sendError(exchange, 500, "calculation failed");
+                    return;
+                }
+                send(exchange, 200, json);
+                RunMetrics.count("queries", 1);
+            } finally {
+                calculations.release();
+            }
+        } finally {
+            recordLatency(System.nanoTime() - start);
+            exchange.close();
+        }
+    }
+
+    // Reads the journeys from the request and returns the results of the calculation as JSON
+    private String calculate(HttpExchange exchange, Map<String, String> parameters, long maxBodyBytes)
+            throws IOException {
+        String maxTravelTime = parameters.get("maxTravelTime");
+        if (maxTravelTime == null) {
+            throw new IllegalArgumentException("maxTravelTime is required");
+        }
+        Duration travelTime = parseDuration("maxTravelTime", maxTravelTime);
+        int bin = parameters.containsKey("bin") ? parseInt("bin", parameters.get("bin")) : DEFAULT_BIN;
+        if (bin <= 0) {
+            throw new IllegalArgumentException("bin must be positive");
+        }
+        if (travelTime.toSeconds() % 60 != 0 || travelTime.toMinutes() % bin != 0) {
+            throw new IllegalArgumentException("maxTravelTime of " + travelTime.abs().toMinutes() +
+                    " minutes is not a whole number of " + bin + " minute bins");
+        }
+        PopulationCalculation.Aggregation aggregation = PopulationCalculation.Aggregation.FIRST;
+        if (parameters.containsKey("aggregation")) {
+            try {
+                aggregation = PopulationCalculation.Aggregation.valueOf(
+                        parameters.get("aggregation").trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown aggregation " + parameters.get("aggregation"));
+            }
+        }
+        double snapDistance = -1;
+        if (parameters.containsKey("snapDistance")) {
+            snapDistance = parseDouble("snapDistance", parameters.get("snapDistance"));
+            if (!(snapDistance >= 0)) {
+                throw new IllegalArgumentException("snapDistance must not be negative");
+            }
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        JourneyBatch journeys;
+        try (InputStream body = new LimitedInputStream(exchange.getRequestBody(), maxBodyBytes)) {
+            journeys = contentType != null && contentType.startsWith("application/octet-stream")
+                    ? readBinary(body) : readCsv(body);
+        }
+        RunMetrics.count("queryJourneys", journeys.size());
+
+        PopulationCalculation calculation = new PopulationCalculation(dataZones, journeys, travelTime, bin);
+        calculation.setZoneGrid(zoneGrid);
+        calculation.setAggregation(aggregation);
+        if (snapDistance >= 0) {
+            calculation.setZoneSnapper(getZoneSnapper().withMaxDistance(snapDistance));
+        }
+        calculation.calculate();
+        return toJson(calculation);
+    }
+
+    // Builds the index of the zone boundaries once, shared by every query which snaps journeys
+    private synchronized ZoneSnapper getZoneSnapper() {
+        if (zoneSnapper == null) {
+            zoneSnapper = new ZoneSnapper(dataZones, 0);
+        }
+        return zoneSnapper;
+    }
+
+    // Reads journeys as CSV lines of latitude, longitude and minutes. A first line holding no numeric field is
+    // taken as a header, any other line which is not a journey is rejected, and blank lines are skipped.
+    private static JourneyBatch readCsv(InputStream body) throws IOException {
+        JourneyBatch journeys = new JourneyBatch(1024);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] values = line.split(",");
+            try {
+                if (values.length != 3) {
+                    throw new NumberFormatException();
+                }
+                journeys.add(Double.parseDouble(values[0].trim()), Double.parseDouble(values[1].trim()),
+                        Integer.parseInt(values[2].trim()));
+            } catch (NumberFormatException e) {
+                if (number > 1 || hasNumber(values)) {
+                    throw new IllegalArgumentException("Line " + number + " is not latitude,longitude,minutes");
+                }
+            }
+        }
+        return journeys;
+    }
+
+    // Whether any of the fields is a number, so the line cannot be a header
+    private static boolean hasNumber(String[] values) {
+        for (String value : values) {
+            try {
+                Double.parseDouble(value.trim());
+                return true;
+            } catch (NumberFormatException e) {
+                // Not a number, the line may still be a header
+            }
+        }
+        return false;
+    }
+
+    // Reads journeys as a binary body of a latitude and longitude double and a minutes int per journey
+    private static JourneyBatch readBinary(InputStream body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        body.transferTo(bytes);
+        if (bytes.size() % BINARY_JOURNEY_BYTES != 0) {
+            throw new IllegalArgumentException("Binary body of " + bytes.size() + " bytes is not a whole number " +
+                    "of " + BINARY_JOURNEY_BYTES + " byte journeys");
+        }
+        int count = bytes.size() / BINARY_JOURNEY_BYTES;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        int[] minutes = new int[count];
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (int i = 0; i < count; i++) {
+                latitudes[i] = in.readDouble();
+                longitudes[i] = in.readDouble();
+                minutes[i] = in.readInt();
+            }
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Binary body ended early");
+        }
+        return new JourneyBatch(latitudes, longitudes, minutes);
+    }
+
+    // Writes the populations of each travel time interval and the result of each data zone reached as JSON
+    private String toJson(PopulationCalculation calculation) {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"bin\": ").append(calculation.getBin());
+        json.append(", \"journeys\": ").append(calculation.getJourneyCount());
+        json.append(", \"aggregation\": \"").append(calculation.getAggregation()).append('"');
+        if (calculation.getSnapDistance() >= 0) {
+            json.append(", \"snapDistance\": ").append(calculation.getSnapDistance());
+            json.append(", \"snappedJourneys\": ").append(calculation.getSnappedJourneys());
+            json.append(", \"discardedJourneys\": ").append(calculation.getDiscardedJourneys());
+        }
+        appendArray(json, "population2020", calculation.getPopulation2020Bins());
+        appendArray(json, "population2016", calculation.getPopulation2016Bins());
+        appendArray(json, "cumulativePopulation2020", calculation.getCumulativePopulation2020());
+        appendArray(json, "cumulativePopulation2016", calculation.getCumulativePopulation2016());
+        double[] durations = calculation.getZoneDurations();
+        int[] zoneJourneys = calculation.getZoneJourneys();
+        json.append(", \"zones\": {");
+        String separator = "";
+        for (int zone = 0; zone < zoneJourneys.length; zone++) {
+            if (zoneJourneys[zone] < 0) {
+                continue;
+            }
+            json.append(separator).append(RunMetrics.quote(dataZones.getName(zone)));
+            json.append(": {\"duration\": ").append(durations[zone]);
+            json.append(", \"geographicAccessDomain2020\": ").append(dataZones.getGeoAccessDomain2020()[zone]);
+            json.append(", \"geographicAccessDomain2016\": ").append(dataZones.getGeoAccessDomain2016()[zone]);
+            json.append(", \"geoAccess2020Rank\": ").append(dataZones.getGeoAccess2020Rank()[zone]);
+            json.append('}');
+            separator = ", ";
+        }
+        return json.append("}}\n").toString();
+    }
+
+    private static void appendArray(StringBuilder json, String name, long[] values) {
+        json.append(", \"").append(name).append("\": [");
+        for (int i = 0; i < values.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(values[i]);
+        }
+        json.append(']');
+    }
+
+    // Returns the run metrics with the latency histogram of the requests answered so far
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder json = new StringBuilder("{\"latencyMillis\": {");
+            for (int i = 0; i < latencies.length; i++) {
+                json.append(i == 0 ? "" : ", ").append('"')
+                        .append(i < LATENCY_BOUNDS.length ? "<=" + LATENCY_BOUNDS[i]
+                                : ">" + LATENCY_BOUNDS[LATENCY_BOUNDS.length - 1])
+                        .append("\": ").append(latencies[i].sum());
+            }
+            json.append("}, \"run\": ").append(RunMetrics.toJson()).append("}\n");
+            send(exchange, 200, json.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Counts a request in the latency histogram
+    private void recordLatency(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS.length && millis > LATENCY_BOUNDS[bucket]) {
+            bucket++;
+        }
+        latencies[bucket].increment();
+    }
+
+    // Returns the declared length of the request body, -1 if it is not declared or not a number
+    private static long contentLength(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "{\"error\": " + RunMetrics.quote(message) + "}\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Splits a query string into its decoded parameters
+    private static Map<String, String> parseQuery(String query) {
+        HashMap<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number, not " + value);
+        }
+    }
+
+    // Reads a whole number of minutes, or an ISO-8601 duration such as PT3H or -PT90M
+    private static Duration parseDuration(String name, String value) {
+        String trimmed = value.trim();
+        try {
+            if (trimmed.matches("[-+]?[0-9]+")) {
+                return Duration.ofMinutes(Long.parseLong(trimmed));
+            }
+            return Duration.parse(trimmed);
+        } catch (ArithmeticException | NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be minutes or an ISO-8601 duration, not " + value);
+        }
+    }
+
+    private static double parseDouble(String name, String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number, not " + value);
+        }
+    }
+
+    // Reads at most a given number of bytes, failing once a body without a declared length exceeds them
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private long limit;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consumed(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                consumed(read);
+            }
+            return read;
+        }
+
+        private void consumed(long bytes) throws BodyTooLargeException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new BodyTooLargeException("Request body is larger than " + limit + " bytes");
+            }
+        }
+    }
+
+    // Thrown while reading a request body larger than the maximum body size
+    private static class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
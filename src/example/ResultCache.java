@@ -0,0 +1,331 @@
+package example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the results and exported files of performed calculations on disk, so repeating an analysis with the
+ * same origin, direction, maximum travel time, bin width, aggregation, data zones and journeys needs no
+ * calculation.
+ * Each entry is a folder named after its key holding the calculation results and a copy of the exported files.
+ * The folder's modification time records its last use, and the least recently used entries are deleted once
+ * the cache grows beyond its maximum size.
+ */
+public class ResultCache {
+
+    private static final int MAGIC = 0x52434831;
+    private static final int VERSION = 5;
+    private static final String RESULTS_FILE = "results.bin";
+    private static final String EXPORTS_DIRECTORY = "exports";
+    // Path and length of every exported file, so a partly deleted copy of the exports is not used
+    private static final String MANIFEST_FILE = "exports.manifest";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private File directory;
+    private long maxBytes;
+
+    /**
+     * Constructor for creating ResultCache.
+     * @param directory - Folder holding the cache entries, created if needed.
+     * @param maxBytes - Size in bytes the entries are kept within, the most recent entry is always kept.
+     */
+    public ResultCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+    }
+
+    /**
+     * Returns the key of an analysis, a SHA-256 digest of everything the results depend on.
+     * @param startingPoint - double array containing coordinates of starting point.
+     * @param maxTravelTime - maxTravelTime in minutes from inbound/outbound analysis performed, negative for
+     *                      inbound.
+     * @param bin - Time increment in minutes for travel intervals.
+     * @param aggregation - Aggregation of the journeys within each data zone.
+     * @param snapDistance - Maximum distance in metres journeys outside every zone are snapped over, negative if
+     *                     they are not snapped.
+     * @param dataZones - DataZoneStore the calculation is performed over.
+     * @param journeys - Journeys from the inbound/outbound analysis performed, in order.
+     * @return Key as 64 hexadecimal digits.
+     */
+    public static String key(double[] startingPoint, int maxTravelTime, int bin,
+                             PopulationCalculation.Aggregation aggregation, double snapDistance,
+                             DataZoneStore dataZones, List<Journey> journeys) {
+        KeyBuilder key = new KeyBuilder(startingPoint, maxTravelTime, bin, aggregation, snapDistance, dataZones,
+                journeys.size());
+        for (Journey journey : journeys) {
+            key.add(journey.getLat(), journey.getLon(), journey.getMinutes());
+        }
+        return key.finish();
+    }
+
+    /**
+     * Returns the key of an analysis over journeys held in a JourneyBatch, equal to the key of the same
+     * journeys held in a list.
+     * @param startingPoint - double array containing coordinates of starting point.
+     * @param maxTravelTime - maxTravelTime in minutes from inbound/outbound analysis performed, negative for
+     *                      inbound.
+     * @param bin - Time increment in minutes for travel intervals.
+     * @param aggregation - Aggregation of the journeys within each data zone.
+     * @param snapDistance - Maximum distance in metres journeys outside every zone are snapped over, negative if
+     *                     they are not snapped.
+     * @param dataZones - DataZoneStore the calculation is performed over.
+     * @param journeys - Journeys from the inbound/outbound analysis performed, in order.
+     * @return Key as 64 hexadecimal digits.
+     */
+    public static String key(double[] startingPoint, int maxTravelTime, int bin,
+                             PopulationCalculation.Aggregation aggregation, double snapDistance,
+                             DataZoneStore dataZones, JourneyBatch journeys) {
+        KeyBuilder key = new KeyBuilder(startingPoint, maxTravelTime, bin, aggregation, snapDistance, dataZones,
+                journeys.size());
+        for (int i = 0; i < journeys.size(); i++) {
+            key.add(journeys.getLatitudes()[i], journeys.getLongitudes()[i], journeys.getMinutes()[i]);
+        }
+        return key.finish();
+    }
+
+    /**
+     * Returns the cached calculation for the key, marking the entry as used.
+     * @param key - Key of the analysis.
+     * @param dataZones - DataZoneStore the calculation was performed over.
+     * @return Performed PopulationCalculation restored from its results, or null if the key is not cached.
+     *         Locations of all journeys are only available in the cached export files.
+     */
+    public synchronized PopulationCalculation get(String key, DataZoneStore dataZones) {
+        File entry = new File(directory, key);
+        File results = new File(entry, RESULTS_FILE);
+        if (!results.isFile()) {
+            RunMetrics.count("resultCacheMisses", 1);
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(results),
+                BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(results + " is not a cached result");
+            }
+            PopulationCalculation calculation = PopulationCalculation.readResults(dataZones, in);
+            entry.setLastModified(System.currentTimeMillis());
+            RunMetrics.count("resultCacheHits", 1);
+            return calculation;
+        } catch (IOException e) {
+            System.out.println("Discarding cached result " + key + ": " + e);
+            delete(entry);
+            RunMetrics.count("resultCacheMisses", 1);
+            return null;
+        }
+    }
+
+    /**
+     * Copies the cached export files for the key into a folder, marking the entry as used. Nothing is copied
+     * unless every file listed when the entry was written is present with the same length.
+     * @param key - Key of the analysis.
+     * @param destination - Folder to copy the files to, created if needed.
+     * @return Whether the key is cached with all of its files and they were copied.
+     * @throws IOException If the files cannot be copied.
+     */
+    public synchronized boolean copyExports(String key, File destination) throws IOException {
+        File entry = new File(directory, key);
+        File exports = new File(entry, EXPORTS_DIRECTORY);
+        File manifest = new File(entry, MANIFEST_FILE);
+        if (!exports.isDirectory() || !new File(entry, RESULTS_FILE).isFile() || !manifest.isFile()) {
+            return false;
+        }
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            int tab = line.lastIndexOf('\t');
+            File file = new File(exports, line.substring(0, tab));
+            if (!file.isFile() || file.length() != Long.parseLong(line.substring(tab + 1))) {
+                System.out.println("Cached exports of " + key + " are incomplete, missing " + file.getName());
+                return false;
+            }
+        }
+        copy(exports, destination);
+        entry.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Caches the results of a calculation along with a copy of its exported files, then deletes the least
+     * recently used entries while the cache is larger than its maximum size. The entry is written to a
+     * temporary folder and renamed into place, so an incomplete entry is never read.
+     * @param key - Key of the analysis, from {@link #key(double[], int, int,
+     *              PopulationCalculation.Aggregation, double, DataZoneStore, List)}.
+     * @param calculation - PopulationCalculation which has been performed.
+     * @param exports - Folder the calculation's files were exported to, or null to cache only the results.
+     * @throws IOException If the entry cannot be written.
+     */
+    public synchronized void put(String key, PopulationCalculation calculation, File exports) throws IOException {
+        File entry = new File(directory, key);
+        if (entry.isDirectory()) {
+            delete(entry);
+        }
+        File temporary = new File(directory, key + ".tmp" + System.nanoTime());
+        try {
+            temporary.mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(temporary, RESULTS_FILE)), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                calculation.writeResults(out);
+            }
+            if (exports != null) {
+                File copied = new File(temporary, EXPORTS_DIRECTORY);
+                copy(exports, copied);
+                StringBuilder manifest = new StringBuilder();
+                list(copied, "", manifest);
+                Files.write(new File(temporary, MANIFEST_FILE).toPath(),
+                        manifest.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            // Another process sharing the cache has written the same entry
+        } finally {
+            delete(temporary);
+        }
+        evict(entry);
+    }
+
+    // Deletes the least recently used entries, other than the one just written, until the cache fits
+    private void evict(File newest) {
+        File[] entries = directory.listFiles(file -> file.isDirectory() && !file.getName().contains(".tmp"));
+        if (entries == null) {
+            return;
+        }
+        long[] sizes = new long[entries.length];
+        long total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            sizes[i] = size(entries[i]);
+            total += sizes[i];
+        }
+        Integer[] order = new Integer[entries.length];
+        long[] used = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            order[i] = i;
+            used[i] = entries[i].lastModified();
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> used[i]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            File entry = entries[order[i]];
+            if (!entry.equals(newest)) {
+                delete(entry);
+                total -= sizes[order[i]];
+            }
+        }
+    }
+
+    // Copies the files in a folder, and its sub folders, into another folder
+    private static void copy(File from, File to) throws IOException {
+        to.mkdirs();
+        File[] files = from.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + from);
+        }
+        for (File file : files) {
+            File target = new File(to, file.getName());
+            if (file.isDirectory()) {
+                copy(file, target);
+            } else {
+                Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    // Adds a line of path and length for every file in a folder and its sub folders
+    private static void list(File folder, String path, StringBuilder manifest) throws IOException {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + folder);
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                list(file, path + file.getName() + "/", manifest);
+            } else {
+                manifest.append(path).append(file.getName()).append('\t').append(file.length()).append('\n');
+            }
+        }
+    }
+
+    // Returns the total size of the files in a folder and its sub folders
+    private static long size(File file) {
+        File[] files = file.listFiles();
+        if (files == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : files) {
+            size += size(child);
+        }
+        return size;
+    }
+
+    // Deletes a file or folder along with its contents
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // Digests the parts of a key, journeys being added through a buffer
+    private static class KeyBuilder {
+
+        private MessageDigest digest;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        KeyBuilder(double[] startingPoint, int maxTravelTime, int bin, PopulationCalculation.Aggregation aggregation,
+                   double snapDistance, DataZoneStore dataZones, int journeys) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            buffer.putInt(VERSION);
+            buffer.putDouble(startingPoint[0]).putDouble(startingPoint[1]);
+            buffer.put((byte) (maxTravelTime < 0 ? 1 : 0));
+            buffer.putInt(Math.abs(maxTravelTime));
+            buffer.putInt(bin);
+            buffer.put((byte) aggregation.ordinal());
+            buffer.putDouble(snapDistance < 0 ? -1 : snapDistance);
+            buffer.put(dataZones.getVersion());
+            buffer.putInt(journeys);
+        }
+
+        void add(double latitude, double longitude, int minutes) {
+            if (buffer.remaining() < 20) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            buffer.putDouble(latitude).putDouble(longitude).putInt(minutes);
+        }
+
+        String finish() {
+            buffer.flip();
+            digest.update(buffer);
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        }
+    }
+}
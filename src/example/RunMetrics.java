@@ -0,0 +1,207 @@
+package example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the phases of a run and counts the work done, for tracking performance across releases. Timers and
+ * counters are shared by every thread in the process. Each timed phase is also emitted as a JFR event, so it
+ * appears in a flight recording alongside garbage collection and CPU samples, and the summary can be written
+ * as JSON next to the exported files.
+ */
+public class RunMetrics {
+
+    private static final ConcurrentSkipListMap<String, LongAdder> phaseNanos = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<String, LongAdder> phaseCounts = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static volatile Instant started = Instant.now();
+
+    /**
+     * Starts timing a phase, the time is recorded when the returned Timer is closed. A phase may be timed
+     * several times, or on several threads at once, and its times are added together.
+     * @param phase - Name of the phase.
+     * @return Timer to close at the end of the phase.
+     */
+    public static Timer time(String phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Returns the counter with the given name, created at zero on first use. Classes counting in their inner
+     * loops keep the counter rather than looking it up for each count.
+     * @param name - Name of the counter.
+     * @return Counter shared by every caller using the name.
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Adds to a counter.
+     * @param name - Name of the counter.
+     * @param amount - Amount to add.
+     */
+    public static void count(String name, long amount) {
+        counter(name).add(amount);
+    }
+
+    /**
+     * Returns the current value of a counter.
+     * @param name - Name of the counter.
+     * @return Value of the counter, 0 if it has not been used.
+     */
+    public static long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Returns the total time spent in a phase.
+     * @param phase - Name of the phase.
+     * @return Time in milliseconds, 0 if the phase has not been timed.
+     */
+    public static double getMillis(String phase) {
+        LongAdder nanos = phaseNanos.get(phase);
+        return nanos == null ? 0 : nanos.sum() / 1e6;
+    }
+
+    /**
+     * Sets every timer and counter back to zero and restarts the run clock.
+     */
+    public static void reset() {
+        phaseNanos.values().forEach(LongAdder::reset);
+        phaseCounts.values().forEach(LongAdder::reset);
+        counters.values().forEach(LongAdder::reset);
+        started = Instant.now();
+    }
+
+    /**
+     * Returns the summary of the run as JSON: when it started, the time and number of runs of each phase
+     * and the value of each counter, names in alphabetical order.
+     * @return JSON object.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"started\": \"").append(started).append("\",\n");
+        json.append("  \"elapsedMillis\": ").append(System.currentTimeMillis() - started.toEpochMilli())
+                .append(",\n");
+        json.append("  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<String, LongAdder> phase : phaseNanos.entrySet()) {
+            json.append(separator).append("    ").append(quote(phase.getKey())).append(": {\"count\": ")
+                    .append(phaseCounts.get(phase.getKey()).sum()).append(", \"millis\": ")
+                    .append(String.format("%.3f", phase.getValue().sum() / 1e6)).append("}");
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "},\n" : "\n  },\n");
+        json.append("  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            json.append(separator).append("    ").append(quote(counter.getKey())).append(": ")
+                    .append(counter.getValue().sum());
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "}\n" : "\n  }\n");
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * Writes the summary returned by toJson to a file, and emits the value of each counter as a JFR event.
+     * @param file - File to write, usually in the folder of the exported files.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeSummary(File file) throws IOException {
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            CounterEvent event = new CounterEvent();
+            if (event.shouldCommit()) {
+                event.name = counter.getKey();
+                event.value = counter.getValue().sum();
+                event.commit();
+            }
+        }
+        try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+            pw.print(toJson());
+        }
+    }
+
+    // Quotes a name as a JSON string
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Times one run of a phase, see {@link #time(String)}. It is only ever closed by the try-with-resources
+     * statement around the phase, so methods timing a phase suppress the "try" lint warning about the unused
+     * resource.
+     */
+    public static class Timer implements AutoCloseable {
+
+        private String phase;
+        private long start;
+        private PhaseEvent event = new PhaseEvent();
+
+        private Timer(String phase) {
+            this.phase = phase;
+            this.event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Records the time since the timer was started.
+         */
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            // Counted before the time is added, so every phase listed by its time has a count
+            phaseCounts.computeIfAbsent(phase, key -> new LongAdder()).increment();
+            phaseNanos.computeIfAbsent(phase, key -> new LongAdder()).add(elapsed);
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("example.Phase")
+    @Label("Phase")
+    @Category("Population Calculation")
+    @Description("A timed phase of loading, calculating or exporting")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("example.Counter")
+    @Label("Counter")
+    @Category("Population Calculation")
+    @Description("Value of a run counter when the run summary was written")
+    static class CounterEvent extends Event {
+        @Label("Name")
+        String name;
+        @Label("Value")
+        long value;
+    }
+}
@@ -0,0 +1,299 @@
+package example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Packed STR (Sort-Tile-Recursive) R-tree over the bounding boxes of a fixed set of items.
+ * The tree is built once and can then be queried for every item whose bounding box covers a point,
+ * or for the item nearest to a point.
+ */
+public class SpatialIndex {
+
+    private static final int NODE_SIZE = 16;
+
+    private double[] minLats;
+    private double[] maxLats;
+    private double[] minLons;
+    private double[] maxLons;
+    private int[] items;
+    private int[] levelStarts;
+    private int size;
+
+    /**
+     * Builds the index over the bounding boxes of the items. Item i is described by
+     * element i of each of the four arrays.
+     * @param minLats - Minimum latitude of each item.
+     * @param maxLats - Maximum latitude of each item.
+     * @param minLons - Minimum longitude of each item.
+     * @param maxLons - Maximum longitude of each item.
+     */
+    public SpatialIndex(double[] minLats, double[] maxLats, double[] minLons, double[] maxLons) {
+        this.size = minLats.length;
+        this.items = sortTileRecursive(minLats, maxLats, minLons, maxLons);
+        setLevels();
+        int nodes = levelStarts[levelStarts.length - 1];
+        this.minLats = new double[nodes];
+        this.maxLats = new double[nodes];
+        this.minLons = new double[nodes];
+        this.maxLons = new double[nodes];
+        for (int i = 0; i < size; i++) {
+            this.minLats[i] = minLats[items[i]];
+            this.maxLats[i] = maxLats[items[i]];
+            this.minLons[i] = minLons[items[i]];
+            this.maxLons[i] = maxLons[items[i]];
+        }
+        setParents();
+    }
+
+    /**
+     * Creates the index over the bounding boxes of the data zones. Item ids are the positions of the zones in the list.
+     * @param dataZones - List of data zones to index.
+     * @return Index over the bounding boxes of the data zones.
+     */
+    public static SpatialIndex forZones(List<DataZone> dataZones) {
+        int n = dataZones.size();
+        double[] minLats = new double[n];
+        double[] maxLats = new double[n];
+        double[] minLons = new double[n];
+        double[] maxLons = new double[n];
+        for (int i = 0; i < n; i++) {
+            DataZone dataZone = dataZones.get(i);
+            minLats[i] = dataZone.getMinLatitude();
+            maxLats[i] = dataZone.getMaxLatitude();
+            minLons[i] = dataZone.getMinLongitude();
+            maxLons[i] = dataZone.getMaxLongitude();
+        }
+        return new SpatialIndex(minLats, maxLats, minLons, maxLons);
+    }
+
+    /**
+     * Returns the number of items held in the index.
+     * @return Number of items.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Passes every item whose bounding box covers the point to the consumer. Bounds are inclusive.
+     * @param latitude - Latitude (y) coordinate of the point being searched.
+     * @param longitude - Longitude (x) coordinate of the point being searched.
+     * @param consumer - Receives the id of each candidate item.
+     */
+    public void query(double latitude, double longitude, IntConsumer consumer) {
+        if (size > 0) {
+            search(levelStarts.length - 2, levelStarts[levelStarts.length - 2], latitude, longitude, consumer);
+        }
+    }
+
+    /**
+     * Finds the item nearest to a point by best-first search. Nodes are visited in order of the distance to
+     * their bounding boxes and an item is only measured once no unvisited node could hold a nearer item, so
+     * usually only a few items near the point are measured. Distances are planar after scaling latitude and
+     * longitude differences, and the item distance must use the same scaling and never be less than the
+     * distance to the item's bounding box.
+     * @param latitude - Latitude (y) coordinate of the point being searched.
+     * @param longitude - Longitude (x) coordinate of the point being searched.
+     * @param latitudeScale - Distance per degree of latitude.
+     * @param longitudeScale - Distance per degree of longitude.
+     * @param maxDistance - Items further away than this are ignored.
+     * @param distance - Measures the distance from the point to an item.
+     * @return Id of the nearest item, or -1 if no item is within maxDistance.
+     */
+    public int nearest(double latitude, double longitude, double latitudeScale, double longitudeScale,
+                       double maxDistance, ItemDistance distance) {
+        if (size == 0) {
+            return -1;
+        }
+        NodeQueue queue = new NodeQueue();
+        int root = levelStarts[levelStarts.length - 2];
+        queue.push(boxDistance(root, latitude, longitude, latitudeScale, longitudeScale), root,
+                levelStarts.length - 2);
+        while (queue.size > 0) {
+            double nodeDistance = queue.peekDistance();
+            if (nodeDistance > maxDistance) {
+                return -1;
+            }
+            int node = queue.peekNode();
+            int level = queue.peekLevel();
+            queue.pop();
+            if (level < 0) {
+                // Measured item, no remaining node can hold a nearer one
+                return node;
+            }
+            if (level == 0) {
+                queue.push(distance.distance(items[node], latitude, longitude), items[node], -1);
+                continue;
+            }
+            int first = levelStarts[level - 1] + (node - levelStarts[level]) * NODE_SIZE;
+            int last = Math.min(first + NODE_SIZE, levelStarts[level]);
+            for (int child = first; child < last; child++) {
+                double childDistance = boxDistance(child, latitude, longitude, latitudeScale, longitudeScale);
+                if (childDistance <= maxDistance) {
+                    queue.push(childDistance, child, level - 1);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Measures the distance from a point to an item, see {@link #nearest}.
+     */
+    public interface ItemDistance {
+        double distance(int item, double latitude, double longitude);
+    }
+
+    // Returns the scaled distance from the point to the node's bounding box, 0 if the box covers the point
+    private double boxDistance(int node, double latitude, double longitude, double latitudeScale,
+                               double longitudeScale) {
+        double dLat = Math.max(0, Math.max(minLats[node] - latitude, latitude - maxLats[node])) * latitudeScale;
+        double dLon = Math.max(0, Math.max(minLons[node] - longitude, longitude - maxLons[node])) * longitudeScale;
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+
+    // Binary min-heap of nodes keyed by distance, used by nearest. A level of -1 marks a measured item.
+    private static class NodeQueue {
+        private double[] distances = new double[64];
+        private int[] nodes = new int[64];
+        private int[] levels = new int[64];
+        private int size;
+
+        void push(double distance, int node, int level) {
+            if (size == distances.length) {
+                distances = Arrays.copyOf(distances, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+                levels = Arrays.copyOf(levels, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                set(i, distances[parent], nodes[parent], levels[parent]);
+                i = parent;
+            }
+            set(i, distance, node, level);
+        }
+
+        double peekDistance() {
+            return distances[0];
+        }
+
+        int peekNode() {
+            return nodes[0];
+        }
+
+        int peekLevel() {
+            return levels[0];
+        }
+
+        void pop() {
+            size--;
+            double distance = distances[size];
+            int node = nodes[size];
+            int level = levels[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (distances[child] >= distance) {
+                    break;
+                }
+                set(i, distances[child], nodes[child], levels[child]);
+                i = child;
+            }
+            set(i, distance, node, level);
+        }
+
+        private void set(int i, double distance, int node, int level) {
+            distances[i] = distance;
+            nodes[i] = node;
+            levels[i] = level;
+        }
+    }
+
+    // Descends from node at the given level, visiting all leaves whose box covers the point
+    private void search(int level, int node, double latitude, double longitude, IntConsumer consumer) {
+        if (latitude < minLats[node] || latitude > maxLats[node]
+                || longitude < minLons[node] || longitude > maxLons[node]) {
+            return;
+        }
+        if (level == 0) {
+            consumer.accept(items[node]);
+            return;
+        }
+        int first = levelStarts[level - 1] + (node - levelStarts[level]) * NODE_SIZE;
+        int last = Math.min(first + NODE_SIZE, levelStarts[level]);
+        for (int child = first; child < last; child++) {
+            search(level - 1, child, latitude, longitude, consumer);
+        }
+    }
+
+    // Orders the items into slices by longitude and then by latitude within each slice
+    private int[] sortTileRecursive(double[] minLats, double[] maxLats, double[] minLons, double[] maxLons) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> minLons[i] + maxLons[i]));
+        int leaves = (size + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+        for (int start = 0; start < size; start += sliceSize) {
+            Arrays.sort(order, start, Math.min(start + sliceSize, size),
+                    Comparator.comparingDouble(i -> minLats[i] + maxLats[i]));
+        }
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = order[i];
+        }
+        return sorted;
+    }
+
+    // Determines where each level of the tree starts, leaves first and the root last
+    private void setLevels() {
+        ArrayList<Integer> starts = new ArrayList<>();
+        int start = 0;
+        int count = size;
+        starts.add(start);
+        do {
+            start += count;
+            starts.add(start);
+            count = (count + NODE_SIZE - 1) / NODE_SIZE;
+        } while (start - starts.get(starts.size() - 2) > 1);
+        levelStarts = new int[starts.size()];
+        for (int i = 0; i < levelStarts.length; i++) {
+            levelStarts[i] = starts.get(i);
+        }
+    }
+
+    // Sets the bounding box of every internal node to the union of its children
+    private void setParents() {
+        for (int level = 1; level < levelStarts.length - 1; level++) {
+            for (int node = levelStarts[level]; node < levelStarts[level + 1]; node++) {
+                int first = levelStarts[level - 1] + (node - levelStarts[level]) * NODE_SIZE;
+                int last = Math.min(first + NODE_SIZE, levelStarts[level]);
+                minLats[node] = Double.POSITIVE_INFINITY;
+                maxLats[node] = Double.NEGATIVE_INFINITY;
+                minLons[node] = Double.POSITIVE_INFINITY;
+                maxLons[node] = Double.NEGATIVE_INFINITY;
+                for (int child = first; child < last; child++) {
+                    minLats[node] = Math.min(minLats[node], minLats[child]);
+                    maxLats[node] = Math.max(maxLats[node], maxLats[child]);
+                    minLons[node] = Math.min(minLons[node], minLons[child]);
+                    maxLons[node] = Math.max(maxLons[node], maxLons[child]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package example;
+
+import org.apache.lucene.geo.Polygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Adjacency graph of the data zones built from the edges their boundaries share, used to dissolve a set of
+ * zones into its outer boundary. Vertices are matched after rounding to 1e-7 degrees (about 1 cm), and every
+ * ring is stored anticlockwise, holes clockwise, so an edge shared by two zones runs in opposite directions in
+ * each. The boundary of a set of zones is then the edges of its zones whose opposite edge belongs to no zone
+ * of the set, and dissolving only walks those edges, in time proportional to the zones in the set rather than
+ * a general polygon union. Zones which touch without sharing vertices are not adjacent, and the seam between
+ * them remains in the dissolved boundary.
+ */
+public class ZoneAdjacency {
+
+    private static final double VERTEX_SCALE = 1e7;
+
+    // Rounded coordinates of each vertex, latitude in the high and longitude in the low 32 bits, ascending
+    private long[] vertices;
+    // Edges of zone z are edgeStarts[z] (inclusive) to edgeStarts[z + 1] (exclusive)
+    private int[] edgeStarts;
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private int[] edgeZones;
+    // Zone holding the opposite edge, -1 when the edge lies on the boundary of every zone
+    private int[] oppositeZones;
+    // Edges leaving vertex v are outEdges[outStarts[v]] (inclusive) to outEdges[outStarts[v + 1]] (exclusive)
+    private int[] outStarts;
+    private int[] outEdges;
+    // Neighbours of zone z are neighbours[neighbourStarts[z]] (inclusive) to neighbours[neighbourStarts[z + 1]]
+    private int[] neighbourStarts;
+    private int[] neighbours;
+
+    /**
+     * Builds the adjacency graph of the data zones.
+     * @param dataZones - DataZoneStore holding the data zones, zones are referred to by their ids.
+     */
+    public ZoneAdjacency(DataZoneStore dataZones) {
+        int zones = dataZones.size();
+        ArrayList<double[]> ringLats = new ArrayList<>();
+        ArrayList<double[]> ringLons = new ArrayList<>();
+        int[] ringStarts = new int[zones + 1];
+        int points = 0;
+        for (int zone = 0; zone < zones; zone++) {
+            ringStarts[zone] = ringLats.size();
+            for (Polygon polygon : dataZones.getZone(zone).getPolygons()) {
+                points += addRing(ringLats, ringLons, polygon, true);
+                for (Polygon hole : polygon.getHoles()) {
+                    points += addRing(ringLats, ringLons, hole, false);
+                }
+            }
+        }
+        ringStarts[zones] = ringLats.size();
+
+        long[] keys = new long[points];
+        int k = 0;
+        for (int ring = 0; ring < ringLats.size(); ring++) {
+            double[] lats = ringLats.get(ring);
+            double[] lons = ringLons.get(ring);
+            for (int i = 0; i < lats.length; i++) {
+                keys[k++] = vertexKey(lats[i], lons[i]);
+            }
+        }
+        Arrays.sort(keys);
+        int unique = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        vertices = Arrays.copyOf(keys, unique);
+
+        edgeStarts = new int[zones + 1];
+        edgeFrom = new int[points];
+        edgeTo = new int[points];
+        edgeZones = new int[points];
+        int edges = 0;
+        for (int zone = 0; zone < zones; zone++) {
+            edgeStarts[zone] = edges;
+            for (int ring = ringStarts[zone]; ring < ringStarts[zone + 1]; ring++) {
+                double[] lats = ringLats.get(ring);
+                double[] lons = ringLons.get(ring);
+                int from = vertexId(lats[0], lons[0]);
+                for (int i = 1; i < lats.length; i++) {
+                    int to = vertexId(lats[i], lons[i]);
+                    // Vertices closer than the rounding leave an edge of no length, which is dropped
+                    if (to != from) {
+                        edgeFrom[edges] = from;
+                        edgeTo[edges] = to;
+                        edgeZones[edges] = zone;
+                        edges++;
+                    }
+                    from = to;
+                }
+            }
+        }
+        edgeStarts[zones] = edges;
+        edgeFrom = Arrays.copyOf(edgeFrom, edges);
+        edgeTo = Arrays.copyOf(edgeTo, edges);
+        edgeZones = Arrays.copyOf(edgeZones, edges);
+
+        outStarts = new int[vertices.length + 1];
+        for (int edge = 0; edge < edges; edge++) {
+            outStarts[edgeFrom[edge] + 1]++;
+        }
+        for (int vertex = 0; vertex < vertices.length; vertex++) {
+            outStarts[vertex + 1] += outStarts[vertex];
+        }
+        outEdges = new int[edges];
+        int[] filled = Arrays.copyOf(outStarts, vertices.length);
+        for (int edge = 0; edge < edges; edge++) {
+            outEdges[filled[edgeFrom[edge]]++] = edge;
+        }
+
+        oppositeZones = new int[edges];
+        for (int edge = 0; edge < edges; edge++) {
+            oppositeZones[edge] = -1;
+            int to = edgeTo[edge];
+            for (int i = outStarts[to]; i < outStarts[to + 1]; i++) {
+                if (edgeTo[outEdges[i]] == edgeFrom[edge]) {
+                    oppositeZones[edge] = edgeZones[outEdges[i]];
+                    break;
+                }
+            }
+        }
+        buildNeighbours(zones);
+    }
+
+    // Adds a copy of the ring turning anticlockwise for an outer ring and clockwise for a hole, returning its
+    // number of vertices
+    private static int addRing(ArrayList<double[]> ringLats, ArrayList<double[]> ringLons, Polygon ring,
+                               boolean outer) {
+        double[] lats = ring.getPolyLats();
+        double[] lons = ring.getPolyLons();
+        if (signedArea(lats, lons) > 0 != outer) {
+            reverse(lats);
+            reverse(lons);
+        }
+        ringLats.add(lats);
+        ringLons.add(lons);
+        return lats.length;
+    }
+
+    // Lists the distinct zones sharing an edge with each zone
+    private void buildNeighbours(int zones) {
+        neighbourStarts = new int[zones + 1];
+        int[] found = new int[16];
+        int count = 0;
+        for (int zone = 0; zone < zones; zone++) {
+            neighbourStarts[zone] = count;
+            for (int edge = edgeStarts[zone]; edge < edgeStarts[zone + 1]; edge++) {
+                int neighbour = oppositeZones[edge];
+                if (neighbour < 0 || neighbour == zone) {
+                    continue;
+                }
+                boolean listed = false;
+                for (int i = neighbourStarts[zone]; i < count && !listed; i++) {
+                    listed = found[i] == neighbour;
+                }
+                if (!listed) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, found.length * 2);
+                    }
+                    found[count++] = neighbour;
+                }
+            }
+            Arrays.sort(found, neighbourStarts[zone], count);
+        }
+        neighbourStarts[zones] = count;
+        neighbours = Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Returns the data zones sharing at least one boundary edge with a zone.
+     * @param zone - Id of the data zone.
+     * @return Ids of the neighbouring zones in ascending order.
+     */
+    public int[] getNeighbours(int zone) {
+        return Arrays.copyOfRange(neighbours, neighbourStarts[zone], neighbourStarts[zone + 1]);
+    }
+
+    /**
+     * Dissolves a set of data zones into the polygons covering them, walking only the edges of the zones in the
+     * set. Each outer boundary becomes a polygon, holding the holes lying within it. Where the boundary
+     * touches itself at a vertex the rings may pass through that vertex twice.
+     * @param reached - Whether each data zone, indexed by id, is in the set.
+     * @return Polygons covering the zones in the set, empty if the set is empty.
+     */
+    public Polygon[] dissolve(boolean[] reached) {
+        int[] boundary = new int[64];
+        int count = 0;
+        for (int zone = 0; zone < reached.length; zone++) {
+            if (!reached[zone]) {
+                continue;
+            }
+            for (int edge = edgeStarts[zone]; edge < edgeStarts[zone + 1]; edge++) {
+                int opposite = oppositeZones[edge];
+                if (opposite < 0 || !reached[opposite]) {
+                    if (count == boundary.length) {
+                        boundary = Arrays.copyOf(boundary, count * 2);
+                    }
+                    boundary[count++] = edge;
+                }
+            }
+        }
+        return assemble(traceRings(reached, boundary, count));
+    }
+
+    // Joins the boundary edges into closed rings, following from each edge an unused boundary edge leaving
+    // the vertex it ends at. The boundary edges are listed in ascending order, so whether an edge has been used
+    // is kept by its position in the list.
+    private ArrayList<double[][]> traceRings(boolean[] reached, int[] boundary, int count) {
+        boolean[] used = new boolean[count];
+        ArrayList<double[][]> rings = new ArrayList<>();
+        double[] lats = new double[64];
+        double[] lons = new double[64];
+        for (int b = 0; b < count; b++) {
+            if (used[b]) {
+                continue;
+            }
+            int edge = boundary[b];
+            int position = b;
+            int start = edgeFrom[edge];
+            int length = 0;
+            while (edge >= 0) {
+                used[position] = true;
+                if (length + 1 >= lats.length) {
+                    lats = Arrays.copyOf(lats, lats.length * 2);
+                    lons = Arrays.copyOf(lons, lons.length * 2);
+                }
+                lats[length] = latitude(edgeFrom[edge]);
+                lons[length] = longitude(edgeFrom[edge]);
+                length++;
+                int vertex = edgeTo[edge];
+                position = vertex == start ? -1 : nextBoundaryEdge(vertex, reached, boundary, count, used);
+                edge = position < 0 ? -1 : boundary[position];
+            }
+            // Rings with fewer than three distinct vertices enclose nothing
+            if (length >= 3) {
+                lats[length] = lats[0];
+                lons[length] = lons[0];
+                rings.add(new double[][]{Arrays.copyOf(lats, length + 1), Arrays.copyOf(lons, length + 1)});
+            }
+        }
+        return rings;
+    }
+
+    // Returns the position in the boundary list of an unused boundary edge leaving the vertex, -1 if there is
+    // none
+    private int nextBoundaryEdge(int vertex, boolean[] reached, int[] boundary, int count, boolean[] used) {
+        for (int i = outStarts[vertex]; i < outStarts[vertex + 1]; i++) {
+            int edge = outEdges[i];
+            int opposite = oppositeZones[edge];
+            if (reached[edgeZones[edge]] && (opposite < 0 || !reached[opposite])) {
+                int position = Arrays.binarySearch(boundary, 0, count, edge);
+                if (!used[position]) {
+                    return position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Creates a polygon for each anticlockwise ring, holding the clockwise rings within it as holes. A hole is
+    // given to the smallest outer ring containing its first vertex.
+    private static Polygon[] assemble(ArrayList<double[][]> rings) {
+        ArrayList<double[][]> outers = new ArrayList<>();
+        ArrayList<Double> outerAreas = new ArrayList<>();
+        ArrayList<double[][]> holes = new ArrayList<>();
+        for (double[][] ring : rings) {
+            double area = signedArea(ring[0], ring[1]);
+            if (area > 0) {
+                outers.add(ring);
+                outerAreas.add(area);
+            } else if (area < 0) {
+                holes.add(ring);
+            }
+        }
+        ArrayList<ArrayList<Polygon>> outerHoles = new ArrayList<>();
+        for (int i = 0; i < outers.size(); i++) {
+            outerHoles.add(new ArrayList<>());
+        }
+        for (double[][] hole : holes) {
+            int best = -1;
+            for (int i = 0; i < outers.size(); i++) {
+                if ((best < 0 || outerAreas.get(i) < outerAreas.get(best)) &&
+                        ringContains(outers.get(i), hole[0][0], hole[1][0])) {
+                    best = i;
+                }
+            }
+            if (best >= 0) {
+                outerHoles.get(best).add(new Polygon(hole[0], hole[1]));
+            }
+        }
+        Polygon[] polygons = new Polygon[outers.size()];
+        for (int i = 0; i < outers.size(); i++) {
+            polygons[i] = new Polygon(outers.get(i)[0], outers.get(i)[1],
+                    outerHoles.get(i).toArray(new Polygon[0]));
+        }
+        return polygons;
+    }
+
+    // Returns whether a point lies within a closed ring, by counting the edges a ray to the east crosses
+    private static boolean ringContains(double[][] ring, double lat, double lon) {
+        double[] lats = ring[0];
+        double[] lons = ring[1];
+        boolean inside = false;
+        for (int i = 1; i < lats.length; i++) {
+            if ((lats[i - 1] > lat) != (lats[i] > lat) && lon < lons[i - 1] + (lat - lats[i - 1]) *
+                    (lons[i] - lons[i - 1]) / (lats[i] - lats[i - 1])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    // Returns twice the signed area of a closed ring in square degrees, positive when it turns anticlockwise
+    private static double signedArea(double[] lats, double[] lons) {
+        double area = 0;
+        for (int i = 1; i < lats.length; i++) {
+            area += (lons[i - 1] - lons[0]) * (lats[i] - lats[0]) - (lons[i] - lons[0]) * (lats[i - 1] - lats[0]);
+        }
+        return area;
+    }
+
+    private static void reverse(double[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    // Returns the rounded coordinates of a vertex packed into a long, ordered by latitude then longitude
+    private static long vertexKey(double lat, double lon) {
+        return ((long) (int) Math.round(lat * VERTEX_SCALE) << 32) |
+                ((int) Math.round(lon * VERTEX_SCALE) & 0xffffffffL);
+    }
+
+    private int vertexId(double lat, double lon) {
+        return Arrays.binarySearch(vertices, vertexKey(lat, lon));
+    }
+
+    private double latitude(int vertex) {
+        return (int) (vertices[vertex] >> 32) / VERTEX_SCALE;
+    }
+
+    private double longitude(int vertex) {
+        return (int) vertices[vertex] / VERTEX_SCALE;
+    }
+}
@@ -0,0 +1,175 @@
+package example;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads and writes every data zone geometry in a single packed binary file, replacing the directory of
+ * per zone CSV files. All values are little endian and the file is laid out as:
+ * <pre>
+ * header      int magic, int version, int zone count, long vertex count
+ * names       for each zone a short byte length followed by the UTF-8 source file name
+ * offsets     int[zone count + 1] index of each zone's first vertex, the last entry is the vertex count
+ * padding     zero bytes up to the next multiple of 8
+ * vertices    for each zone its latitudes followed by its longitudes as doubles
+ * </pre>
+ */
+public class ZoneGeometryFile {
+
+    private static final int MAGIC = 0x445A4731;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Converts a directory of data zone CSV files into a packed geometry file.
+     * @param args - Directory containing the data zone CSV files followed by the file to write.
+     * @throws IOException If the packed file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: ZoneGeometryFile <data zone csv directory> <output file>");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int zones = write(new File(args[0]), new File(args[1]));
+        System.out.println("Packed " + zones + " data zones in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Writes the geometry of every data zone CSV file in the directory to the packed file.
+     * @param directory - Directory containing the data zone CSV files.
+     * @param file - Packed geometry file to write.
+     * @return Number of data zones written.
+     * @throws IOException If the packed file cannot be written.
+     */
+    public static int write(File directory, File file) throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<double[][]> geometries = new ArrayList<>();
+        for (File f : directory.listFiles()) {
+            double[][] geometry = Main.readDataZoneFile(f);
+            if (geometry != null) {
+                names.add(f.getName());
+                geometries.add(geometry);
+            }
+        }
+
+        long vertices = 0;
+        for (double[][] geometry : geometries) {
+            vertices += geometry[0].length;
+        }
+
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(names.size());
+            buffer.putLong(vertices);
+            long position = 20;
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                flushIfFull(channel, buffer, 2 + bytes.length);
+                buffer.putShort((short) bytes.length);
+                buffer.put(bytes);
+                position += 2 + bytes.length;
+            }
+            int offset = 0;
+            for (int i = 0; i <= geometries.size(); i++) {
+                flushIfFull(channel, buffer, 4);
+                buffer.putInt(offset);
+                if (i < geometries.size()) {
+                    offset += geometries.get(i)[0].length;
+                }
+                position += 4;
+            }
+            while (position % 8 != 0) {
+                flushIfFull(channel, buffer, 1);
+                buffer.put((byte) 0);
+                position++;
+            }
+            for (double[][] geometry : geometries) {
+                for (double[] values : geometry) {
+                    for (double value : values) {
+                        flushIfFull(channel, buffer, 8);
+                        buffer.putDouble(value);
+                    }
+                }
+            }
+            flush(channel, buffer);
+        }
+        return names.size();
+    }
+
+    /**
+     * Memory maps a packed geometry file and creates a DataZone for every data zone it holds, the parts of
+     * multi-part zones being grouped into one DataZone as {@link Main#createDataZones} does.
+     * @param file - Packed geometry file written by {@link #write(File, File)}.
+     * @return ArrayList containing a DataZone for each data zone, in the order their first part was written.
+     * @throws IOException If the file cannot be read or is not a packed geometry file.
+     */
+    public static ArrayList<DataZone> read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException(file + " is not a packed data zone geometry file");
+        }
+        int count = buffer.getInt();
+        long vertices = buffer.getLong();
+
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[buffer.getShort()];
+            buffer.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = buffer.getInt();
+        }
+        if (offsets[count] != vertices) {
+            throw new IOException(file + " has inconsistent vertex offsets");
+        }
+        buffer.position((buffer.position() + 7) & ~7);
+        DoubleBuffer doubles = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+
+        ArrayList<double[][]> geometries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = offsets[i + 1] - offsets[i];
+            double[] lats = new double[length];
+            double[] lons = new double[length];
+            doubles.get(lats);
+            doubles.get(lons);
+            geometries.add(new double[][]{lats, lons});
+        }
+        return Main.createDataZones(Arrays.asList(names), geometries);
+    }
+
+    // Writes out the buffer if there is no room for the next value
+    private static void flushIfFull(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    // Writes the contents of the buffer to the channel and clears it
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
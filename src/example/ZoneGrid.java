@@ -0,0 +1,275 @@
+package example;
+
+import org.apache.lucene.index.PointValues.Relation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Raster of fixed size cells over the extent of the data zones recording, for each cell lying entirely
+ * inside a single zone, the id of that zone. Points in such cells resolve with one array lookup. Cells
+ * touching no zone are marked empty, and only cells on a zone boundary need exact contains tests.
+ */
+public class ZoneGrid {
+
+    /** Returned by lookup for points which are not within any data zone. */
+    public static final int EMPTY = -1;
+    /** Returned by lookup for points in cells on a data zone boundary, which need exact tests. */
+    public static final int BOUNDARY = -2;
+
+    private static final double METRES_PER_DEGREE = 111320;
+    // Cell bounds are widened by this many degrees when built so rounding in lookup cannot place a point
+    // in a cell it lies just outside of
+    private static final double EPSILON = 1e-9;
+    private static final int MAGIC = 0x445A4752;
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private double minLat;
+    private double minLon;
+    private double cellLat;
+    private double cellLon;
+    private int rows;
+    private int cols;
+    private int zoneCount;
+    // Geometry version of the data zones the grid was built from, see DataZoneStore.getGeometryVersion
+    private byte[] zoneVersion;
+    // Lookup value + 2: 0 = boundary, 1 = empty, otherwise zone id + 2
+    private char[] cells;
+
+    private ZoneGrid(double minLat, double minLon, double cellLat, double cellLon, int rows, int cols,
+                     int zoneCount, byte[] zoneVersion) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.cellLat = cellLat;
+        this.cellLon = cellLon;
+        this.rows = rows;
+        this.cols = cols;
+        this.zoneCount = zoneCount;
+        this.zoneVersion = zoneVersion;
+    }
+
+    /**
+     * Builds the grid over the data zones loaded by Main and writes it to a file.
+     * @param args - File to write followed by the cell size in metres.
+     * @throws IOException If the grid file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: ZoneGrid <output file> <cell size in metres>");
+            return;
+        }
+        DataZoneStore dataZones = new DataZoneStore(Main.loadDataZones());
+        long start = System.currentTimeMillis();
+        ZoneGrid grid = build(dataZones, Double.parseDouble(args[1]));
+        grid.write(new File(args[0]));
+        System.out.println("Built " + grid.rows + " x " + grid.cols + " grid in " +
+                (System.currentTimeMillis() - start) + " ms, " +
+                String.format("%.1f", grid.getResolvedFraction() * 100) + "% of cells resolve without a contains test");
+    }
+
+    /**
+     * Builds the grid over every data zone in the store.
+     * @param dataZones - DataZoneStore holding the data zones.
+     * @param cellSize - Width and height of each cell in metres, for example 50 to 100.
+     * @return Grid of the data zone owning each cell.
+     */
+    public static ZoneGrid build(DataZoneStore dataZones, double cellSize) {
+        if (dataZones.size() > Character.MAX_VALUE - 2) {
+            throw new IllegalArgumentException("Too many data zones for a grid: " + dataZones.size());
+        }
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int id = 0; id < dataZones.size(); id++) {
+            DataZone dataZone = dataZones.getZone(id);
+            minLat = Math.min(minLat, dataZone.getMinLatitude());
+            maxLat = Math.max(maxLat, dataZone.getMaxLatitude());
+            minLon = Math.min(minLon, dataZone.getMinLongitude());
+            maxLon = Math.max(maxLon, dataZone.getMaxLongitude());
+        }
+        if (dataZones.size() == 0) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+        double cellLat = cellSize / METRES_PER_DEGREE;
+        double cellLon = cellSize / (METRES_PER_DEGREE * Math.cos(Math.toRadians((minLat + maxLat) / 2)));
+        int rows = (int) Math.floor((maxLat - minLat) / cellLat) + 1;
+        int cols = (int) Math.floor((maxLon - minLon) / cellLon) + 1;
+        if ((long) rows * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cell size " + cellSize + " m gives too many cells");
+        }
+
+        ZoneGrid grid = new ZoneGrid(minLat, minLon, cellLat, cellLon, rows, cols, dataZones.size(),
+                dataZones.getGeometryVersion());
+        grid.cells = new char[rows * cols];
+        int[] candidates = new int[dataZones.size()];
+        for (int id = 0; id < candidates.length; id++) {
+            candidates[id] = id;
+        }
+        grid.fill(dataZones, 0, rows, 0, cols, candidates, candidates.length);
+        return grid;
+    }
+
+    /**
+     * Returns the data zone containing the point when it lies in a cell owned by a single zone.
+     * @param latitude - Latitude (y) coordinate of the point being searched.
+     * @param longitude - Longitude (x) coordinate of the point being searched.
+     * @return Id of the data zone containing the point, EMPTY if no zone contains it, or BOUNDARY if the point
+     *         needs to be tested against the zones themselves.
+     */
+    public int lookup(double latitude, double longitude) {
+        double row = Math.floor((latitude - minLat) / cellLat);
+        double col = Math.floor((longitude - minLon) / cellLon);
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return EMPTY;
+        }
+        return cells[(int) row * cols + (int) col] - 2;
+    }
+
+    /**
+     * Returns the share of cells which resolve without an exact test, either empty or owned by one zone.
+     * @return Fraction of cells between 0 and 1.
+     */
+    public double getResolvedFraction() {
+        long boundary = 0;
+        for (char cell : cells) {
+            if (cell == BOUNDARY + 2) {
+                boundary++;
+            }
+        }
+        return cells.length == 0 ? 1 : 1 - (double) boundary / cells.length;
+    }
+
+    // Assigns the block of cells [rowFrom, rowTo) x [colFrom, colTo), splitting it into quarters until each
+    // part is empty, inside one zone or a single boundary cell. Only the first count candidates are considered.
+    private void fill(DataZoneStore dataZones, int rowFrom, int rowTo, int colFrom, int colTo,
+                      int[] candidates, int count) {
+        double south = minLat + rowFrom * cellLat - EPSILON;
+        double north = minLat + rowTo * cellLat + EPSILON;
+        double west = minLon + colFrom * cellLon - EPSILON;
+        double east = minLon + colTo * cellLon + EPSILON;
+
+        int[] touching = new int[count];
+        int touchingCount = 0;
+        int inside = 0;
+        for (int i = 0; i < count; i++) {
+            DataZone dataZone = dataZones.getZone(candidates[i]);
+            if (dataZone.getMaxLatitude() < south || dataZone.getMinLatitude() > north
+                    || dataZone.getMaxLongitude() < west || dataZone.getMinLongitude() > east) {
+                continue;
+            }
+            Relation relation = dataZone.relate(south, north, west, east);
+            if (relation != Relation.CELL_OUTSIDE_QUERY) {
+                touching[touchingCount++] = candidates[i];
+                if (relation == Relation.CELL_INSIDE_QUERY) {
+                    inside++;
+                }
+            }
+        }
+
+        if (touchingCount == 0) {
+            setBlock(rowFrom, rowTo, colFrom, colTo, (char) (EMPTY + 2));
+        } else if (touchingCount == 1 && inside == 1) {
+            setBlock(rowFrom, rowTo, colFrom, colTo, (char) (touching[0] + 2));
+        } else if (rowTo - rowFrom == 1 && colTo - colFrom == 1) {
+            setBlock(rowFrom, rowTo, colFrom, colTo, (char) (BOUNDARY + 2));
+        } else {
+            int rowMiddle = rowTo - rowFrom > 1 ? (rowFrom + rowTo) >>> 1 : rowTo;
+            int colMiddle = colTo - colFrom > 1 ? (colFrom + colTo) >>> 1 : colTo;
+            fill(dataZones, rowFrom, rowMiddle, colFrom, colMiddle, touching, touchingCount);
+            if (colMiddle < colTo) {
+                fill(dataZones, rowFrom, rowMiddle, colMiddle, colTo, touching, touchingCount);
+            }
+            if (rowMiddle < rowTo) {
+                fill(dataZones, rowMiddle, rowTo, colFrom, colMiddle, touching, touchingCount);
+                if (colMiddle < colTo) {
+                    fill(dataZones, rowMiddle, rowTo, colMiddle, colTo, touching, touchingCount);
+                }
+            }
+        }
+    }
+
+    // Sets every cell in the block to the value
+    private void setBlock(int rowFrom, int rowTo, int colFrom, int colTo, char value) {
+        for (int row = rowFrom; row < rowTo; row++) {
+            Arrays.fill(cells, row * cols + colFrom, row * cols + colTo, value);
+        }
+    }
+
+    /**
+     * Writes the grid to a little endian binary file: a header of magic, version, zone count, the geometry
+     * version of the zones, the grid origin and cell size, rows and columns, followed by the cells row by row.
+     * @param file - File to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(zoneCount);
+            buffer.put(zoneVersion);
+            buffer.putDouble(minLat);
+            buffer.putDouble(minLon);
+            buffer.putDouble(cellLat);
+            buffer.putDouble(cellLon);
+            buffer.putInt(rows);
+            buffer.putInt(cols);
+            for (char cell : cells) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+                buffer.putChar(cell);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Reads a grid written by {@link #write(File)}.
+     * @param file - File to read.
+     * @param dataZones - DataZoneStore the grid is used with, which must hold the zones it was built from.
+     * @return The grid.
+     * @throws IOException If the file cannot be read or was built from different data zones, including the same
+     *                     zones with different boundaries.
+     */
+    public static ZoneGrid read(File file, DataZoneStore dataZones) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException(file + " is not a data zone grid file");
+        }
+        int zoneCount = buffer.getInt();
+        byte[] zoneVersion = new byte[dataZones.getGeometryVersion().length];
+        buffer.get(zoneVersion);
+        if (zoneCount != dataZones.size() || !Arrays.equals(zoneVersion, dataZones.getGeometryVersion())) {
+            throw new IOException(file + " was built from different data zones");
+        }
+        ZoneGrid grid = new ZoneGrid(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                buffer.getDouble(), buffer.getInt(), buffer.getInt(), zoneCount, zoneVersion);
+        grid.cells = new char[grid.rows * grid.cols];
+        buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer().get(grid.cells);
+        return grid;
+    }
+
+    // Writes the contents of the buffer to the channel and clears it
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
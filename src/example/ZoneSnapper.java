@@ -0,0 +1,157 @@
+package example;
+
+import org.apache.lucene.geo.Polygon;
+
+import java.util.ArrayList;
+
+/**
+ * Assigns points lying outside every data zone, such as ferry terminals just off the coast, to the data zone
+ * whose boundary is nearest within a maximum distance. Zone boundaries are split into runs of consecutive edges
+ * indexed by their bounding boxes, so a search only measures the edges of the few runs nearest the point.
+ * Distances are in metres on an equirectangular projection around the point, accurate at data zone scales.
+ */
+public class ZoneSnapper {
+
+    private static final double METRES_PER_DEGREE = 111320;
+    // Edges per indexed run, trading the size of the index against the edges measured per run
+    private static final int RUN_LENGTH = 16;
+
+    private double maxDistance;
+    // For each run: its zone, the boundary ring holding it and the index of its first vertex in the ring
+    private int[] runZones;
+    private double[][] runLats;
+    private double[][] runLons;
+    private int[] runStarts;
+    private SpatialIndex index;
+
+    /**
+     * Indexes the boundaries of the data zones.
+     * @param dataZones - DataZoneStore holding the data zones, points are snapped to their ids.
+     * @param maxDistance - Points further than this many metres from every zone boundary are not snapped.
+     */
+    public ZoneSnapper(DataZoneStore dataZones, double maxDistance) {
+        this.maxDistance = maxDistance;
+        ArrayList<double[]> lats = new ArrayList<>();
+        ArrayList<double[]> lons = new ArrayList<>();
+        ArrayList<Integer> zones = new ArrayList<>();
+        for (int zone = 0; zone < dataZones.size(); zone++) {
+            for (Polygon polygon : dataZones.getZone(zone).getPolygons()) {
+                lats.add(polygon.getPolyLats());
+                lons.add(polygon.getPolyLons());
+                zones.add(zone);
+                for (Polygon hole : polygon.getHoles()) {
+                    lats.add(hole.getPolyLats());
+                    lons.add(hole.getPolyLons());
+                    zones.add(zone);
+                }
+            }
+        }
+
+        int runs = 0;
+        for (double[] ring : lats) {
+            runs += (ring.length - 1 + RUN_LENGTH - 1) / RUN_LENGTH;
+        }
+        runZones = new int[runs];
+        runLats = new double[runs][];
+        runLons = new double[runs][];
+        runStarts = new int[runs];
+        double[] minLats = new double[runs];
+        double[] maxLats = new double[runs];
+        double[] minLons = new double[runs];
+        double[] maxLons = new double[runs];
+        int run = 0;
+        for (int ring = 0; ring < lats.size(); ring++) {
+            double[] ringLats = lats.get(ring);
+            double[] ringLons = lons.get(ring);
+            for (int start = 0; start < ringLats.length - 1; start += RUN_LENGTH) {
+                runZones[run] = zones.get(ring);
+                runLats[run] = ringLats;
+                runLons[run] = ringLons;
+                runStarts[run] = start;
+                minLats[run] = minLons[run] = Double.POSITIVE_INFINITY;
+                maxLats[run] = maxLons[run] = Double.NEGATIVE_INFINITY;
+                int end = Math.min(start + RUN_LENGTH, ringLats.length - 1);
+                for (int i = start; i <= end; i++) {
+                    minLats[run] = Math.min(minLats[run], ringLats[i]);
+                    maxLats[run] = Math.max(maxLats[run], ringLats[i]);
+                    minLons[run] = Math.min(minLons[run], ringLons[i]);
+                    maxLons[run] = Math.max(maxLons[run], ringLons[i]);
+                }
+                run++;
+            }
+        }
+        index = new SpatialIndex(minLats, maxLats, minLons, maxLons);
+    }
+
+    // Shares the indexed boundaries of another snapper
+    private ZoneSnapper(ZoneSnapper snapper, double maxDistance) {
+        this.maxDistance = maxDistance;
+        this.runZones = snapper.runZones;
+        this.runLats = snapper.runLats;
+        this.runLons = snapper.runLons;
+        this.runStarts = snapper.runStarts;
+        this.index = snapper.index;
+    }
+
+    /**
+     * Returns a snapper over the same data zones with another maximum distance, sharing this snapper's index
+     * so it costs nothing to create.
+     * @param maxDistance - Points further than this many metres from every zone boundary are not snapped.
+     * @return ZoneSnapper with the given maximum distance.
+     */
+    public ZoneSnapper withMaxDistance(double maxDistance) {
+        return new ZoneSnapper(this, maxDistance);
+    }
+
+    /**
+     * Returns the maximum distance points are snapped over.
+     * @return Distance in metres.
+     */
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Finds the data zone whose boundary is nearest to a point. The point is expected to lie outside every
+     * zone, for a point inside a zone the zone with the nearest boundary need not be the zone containing it.
+     * @param latitude - Latitude (y) coordinate of the point.
+     * @param longitude - Longitude (x) coordinate of the point.
+     * @return Id of the nearest data zone, or -1 if no zone boundary is within the maximum distance.
+     */
+    public int snap(double latitude, double longitude) {
+        double longitudeScale = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        int run = index.nearest(latitude, longitude, METRES_PER_DEGREE, longitudeScale, maxDistance,
+                (item, lat, lon) -> runDistance(item, lat, lon, longitudeScale));
+        return run < 0 ? -1 : runZones[run];
+    }
+
+    // Returns the distance in metres from the point to the nearest edge of the run
+    private double runDistance(int run, double latitude, double longitude, double longitudeScale) {
+        double[] lats = runLats[run];
+        double[] lons = runLons[run];
+        int end = Math.min(runStarts[run] + RUN_LENGTH, lats.length - 1);
+        double best = Double.POSITIVE_INFINITY;
+        // Coordinates in metres relative to the point
+        double x1 = (lons[runStarts[run]] - longitude) * longitudeScale;
+        double y1 = (lats[runStarts[run]] - latitude) * METRES_PER_DEGREE;
+        for (int i = runStarts[run] + 1; i <= end; i++) {
+            double x2 = (lons[i] - longitude) * longitudeScale;
+            double y2 = (lats[i] - latitude) * METRES_PER_DEGREE;
+            best = Math.min(best, segmentDistanceSquared(x1, y1, x2, y2));
+            x1 = x2;
+            y1 = y2;
+        }
+        return Math.sqrt(best);
+    }
+
+    // Returns the squared distance from the origin to the segment between two points
+    private static double segmentDistanceSquared(double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(x1 * dx + y1 * dy) / lengthSquared));
+        double x = x1 + t * dx;
+        double y = y1 + t * dy;
+        return x * x + y * y;
+    }
+}
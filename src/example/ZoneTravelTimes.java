@@ -0,0 +1,212 @@
+package example;
+
+import java.util.Arrays;
+
+/**
+ * Minimum, median and maximum travel time of every journey within each data zone, reduced in a single pass
+ * into primitive per-zone arrays. Each zone counts its journeys per whole minute of travel time, so the median
+ * needs no journeys to be kept. The journey credited to each zone is the fastest, the slowest or the first
+ * journey within it, depending on the aggregation, the lowest journey index winning ties so the result does not
+ * depend on how the journeys were split between workers.
+ */
+public class ZoneTravelTimes {
+
+    private PopulationCalculation.Aggregation aggregation;
+    private int[] counts;
+    private int[] minimums;
+    private int[] maximums;
+    // Journeys per travel time in minutes for each zone, created on the zone's first journey and grown as needed
+    private int[][] minuteCounts;
+    private int[] journeys;
+    private double[] lats;
+    private double[] lons;
+
+    /**
+     * Constructor for creating ZoneTravelTimes with no journeys.
+     * @param zones - Number of data zones.
+     * @param aggregation - Aggregation deciding which journey is credited to each zone.
+     */
+    public ZoneTravelTimes(int zones, PopulationCalculation.Aggregation aggregation) {
+        this.aggregation = aggregation;
+        this.counts = new int[zones];
+        this.minimums = new int[zones];
+        this.maximums = new int[zones];
+        this.minuteCounts = new int[zones][];
+        this.journeys = new int[zones];
+        this.lats = new double[zones];
+        this.lons = new double[zones];
+        Arrays.fill(journeys, -1);
+    }
+
+    /**
+     * Adds a journey lying within a data zone.
+     * @param zone - Id of the data zone.
+     * @param travelTime - Travel time of the journey in minutes, times below 0 count as 0 for the median.
+     * @param journey - Index of the journey.
+     * @param lat - Latitude of the journey's location.
+     * @param lon - Longitude of the journey's location.
+     */
+    public void add(int zone, int travelTime, int journey, double lat, double lon) {
+        boolean credit = counts[zone] == 0 ||
+                beats(travelTime, journey, creditedTime(zone), journeys[zone]);
+        if (counts[zone] == 0) {
+            minimums[zone] = travelTime;
+            maximums[zone] = travelTime;
+        } else {
+            minimums[zone] = Math.min(minimums[zone], travelTime);
+            maximums[zone] = Math.max(maximums[zone], travelTime);
+        }
+        counts[zone]++;
+        int minute = Math.max(travelTime, 0);
+        int[] minutes = minuteCounts[zone];
+        if (minutes == null || minutes.length <= minute) {
+            minutes = minuteCounts[zone] = minutes == null ? new int[minute + 1]
+                    : Arrays.copyOf(minutes, Math.max(minute + 1, minutes.length * 2));
+        }
+        minutes[minute]++;
+        if (credit) {
+            journeys[zone] = journey;
+            lats[zone] = lat;
+            lons[zone] = lon;
+        }
+    }
+
+    /**
+     * Adds the journeys counted by another ZoneTravelTimes over the same data zones.
+     * @param other - ZoneTravelTimes holding other journeys.
+     */
+    public void merge(ZoneTravelTimes other) {
+        for (int zone = 0; zone < counts.length; zone++) {
+            if (other.counts[zone] == 0) {
+                continue;
+            }
+            boolean credit = counts[zone] == 0 || beats(other.creditedTime(zone), other.journeys[zone],
+                    creditedTime(zone), journeys[zone]);
+            if (counts[zone] == 0) {
+                minimums[zone] = other.minimums[zone];
+                maximums[zone] = other.maximums[zone];
+                minuteCounts[zone] = other.minuteCounts[zone].clone();
+            } else {
+                minimums[zone] = Math.min(minimums[zone], other.minimums[zone]);
+                maximums[zone] = Math.max(maximums[zone], other.maximums[zone]);
+                int[] otherMinutes = other.minuteCounts[zone];
+                if (minuteCounts[zone].length < otherMinutes.length) {
+                    minuteCounts[zone] = Arrays.copyOf(minuteCounts[zone], otherMinutes.length);
+                }
+                for (int minute = 0; minute < otherMinutes.length; minute++) {
+                    minuteCounts[zone][minute] += otherMinutes[minute];
+                }
+            }
+            counts[zone] += other.counts[zone];
+            if (credit) {
+                journeys[zone] = other.journeys[zone];
+                lats[zone] = other.lats[zone];
+                lons[zone] = other.lons[zone];
+            }
+        }
+    }
+
+    // Returns whether a journey should replace the journey currently credited to a zone
+    private boolean beats(int travelTime, int journey, int creditedTime, int creditedJourney) {
+        if (aggregation == PopulationCalculation.Aggregation.MINIMUM && travelTime != creditedTime) {
+            return travelTime < creditedTime;
+        }
+        if (aggregation == PopulationCalculation.Aggregation.MAXIMUM && travelTime != creditedTime) {
+            return travelTime > creditedTime;
+        }
+        return journey < creditedJourney;
+    }
+
+    // Returns the travel time of the journey credited to the zone, the time beats compares for the aggregation
+    private int creditedTime(int zone) {
+        return aggregation == PopulationCalculation.Aggregation.MAXIMUM ? maximums[zone] : minimums[zone];
+    }
+
+    /**
+     * Returns the number of journeys within each data zone.
+     * @return Array of journey counts, indexed by zone id.
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * Returns the travel time of the fastest journey within a data zone.
+     * @param zone - Id of the data zone.
+     * @return Travel time in minutes, only meaningful when the zone holds a journey.
+     */
+    public int getMinimum(int zone) {
+        return minimums[zone];
+    }
+
+    /**
+     * Returns the median travel time of the journeys within a data zone. With an even number of journeys the
+     * lower of the two middle times is returned, so the median is always the time of a journey.
+     * @param zone - Id of the data zone.
+     * @return Travel time in minutes, only meaningful when the zone holds a journey.
+     */
+    public int getMedian(int zone) {
+        int[] minutes = minuteCounts[zone];
+        if (minutes == null) {
+            return 0;
+        }
+        int remaining = (counts[zone] + 1) / 2;
+        for (int minute = 0; minute < minutes.length; minute++) {
+            remaining -= minutes[minute];
+            if (remaining <= 0) {
+                return minute;
+            }
+        }
+        return minutes.length - 1;
+    }
+
+    /**
+     * Returns the travel time of the slowest journey within a data zone.
+     * @param zone - Id of the data zone.
+     * @return Travel time in minutes, only meaningful when the zone holds a journey.
+     */
+    public int getMaximum(int zone) {
+        return maximums[zone];
+    }
+
+    /**
+     * Returns the travel time the aggregation reduces a data zone's journeys to.
+     * @param zone - Id of the data zone.
+     * @return Minimum, median or maximum travel time in minutes.
+     */
+    public int getTravelTime(int zone) {
+        switch (aggregation) {
+            case MINIMUM:
+                return getMinimum(zone);
+            case MAXIMUM:
+                return getMaximum(zone);
+            default:
+                return getMedian(zone);
+        }
+    }
+
+    /**
+     * Returns the journey credited to each data zone: the fastest journey for the minimum, the slowest for the
+     * maximum and the first journey within the zone for the median.
+     * @return Array of journey indices, -1 where the zone holds no journey.
+     */
+    public int[] getJourneys() {
+        return journeys;
+    }
+
+    /**
+     * Returns the latitude of the journey credited to each data zone.
+     * @return Array of latitudes, indexed by zone id.
+     */
+    public double[] getLats() {
+        return lats;
+    }
+
+    /**
+     * Returns the longitude of the journey credited to each data zone.
+     * @return Array of longitudes, indexed by zone id.
+     */
+    public double[] getLons() {
+        return lons;
+    }
+}
@@ -0,0 +1,200 @@
+package example;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.apache.lucene.geo.Polygon;
+
+/**
+ * The rings of a data zone's polygons packed end to end into two primitive arrays, tested with a crossing number test
+ * vectorised with the incubating Vector API. It is kept in its own source folder so the rest of the tree builds without
+ * the incubator module: src/vector is compiled after src/example with --add-modules jdk.incubator.vector, and the JVM
+ * is started with the same option. DataZone loads the class by name when the VECTOR contains engine is selected. A
+ * single point is tested against several edges per instruction, and a batch of points is tested several points per
+ * instruction against one edge at a time. Each edge crossing is computed exactly as Polygon2D computes it, and each
+ * part and hole is first checked against its own bounding box as Polygon2D does, so both give the same result for every
+ * point, including points on an edge or vertex, which PackedPolygonCheck tests.
+ */
+public class PackedPolygon implements DataZone.PointInPolygon {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // Vertices of every ring, each ring closed by repeating its first vertex. Ring r holds the vertices
+    // ringStarts[r] to ringStarts[r + 1] - 1, part p holds the rings partStarts[p] to partStarts[p + 1] - 1,
+    // its outer ring first followed by its holes.
+    private double[] lats;
+    private double[] lons;
+    private int[] ringStarts;
+    private int[] partStarts;
+    private double[] ringMinLats;
+    private double[] ringMaxLats;
+    private double[] ringMinLons;
+    private double[] ringMaxLons;
+
+    /**
+     * Constructor for packing the polygons of a data zone.
+     * @param polygons - Polygons of each part of the data zone, with any holes.
+     */
+    public PackedPolygon(Polygon[] polygons) {
+        int rings = 0;
+        int vertices = 0;
+        for (Polygon polygon : polygons) {
+            rings += 1 + polygon.getHoles().length;
+            vertices += polygon.getPolyLats().length;
+            for (Polygon hole : polygon.getHoles()) {
+                vertices += hole.getPolyLats().length;
+            }
+        }
+        lats = new double[vertices];
+        lons = new double[vertices];
+        ringStarts = new int[rings + 1];
+        partStarts = new int[polygons.length + 1];
+        ringMinLats = new double[rings];
+        ringMaxLats = new double[rings];
+        ringMinLons = new double[rings];
+        ringMaxLons = new double[rings];
+        int ring = 0;
+        for (int part = 0; part < polygons.length; part++) {
+            partStarts[part] = ring;
+            addRing(ring++, polygons[part]);
+            for (Polygon hole : polygons[part].getHoles()) {
+                addRing(ring++, hole);
+            }
+        }
+        partStarts[polygons.length] = rings;
+    }
+
+    // Copies the vertices of the ring after those of the previous ring
+    private void addRing(int ring, Polygon polygon) {
+        double[] ringLats = polygon.getPolyLats();
+        double[] ringLons = polygon.getPolyLons();
+        int start = ringStarts[ring];
+        System.arraycopy(ringLats, 0, lats, start, ringLats.length);
+        System.arraycopy(ringLons, 0, lons, start, ringLons.length);
+        ringStarts[ring + 1] = start + ringLats.length;
+        ringMinLats[ring] = polygon.minLat;
+        ringMaxLats[ring] = polygon.maxLat;
+        ringMinLons[ring] = polygon.minLon;
+        ringMaxLons[ring] = polygon.maxLon;
+    }
+
+    /**
+     * Determines if a point is within any part of the polygon and outside that part's holes.
+     * @param latitude - Latitude (y) coordinate of the point.
+     * @param longitude - Longitude (x) coordinate of the point.
+     * @return Whether the point is contained within the polygon.
+     */
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        for (int part = 0; part < partStarts.length - 1; part++) {
+            if (ringContains(partStarts[part], latitude, longitude)) {
+                boolean inHole = false;
+                for (int hole = partStarts[part] + 1; hole < partStarts[part + 1] && !inHole; hole++) {
+                    inHole = ringContains(hole, latitude, longitude);
+                }
+                if (!inHole) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Whether the point is inside the ring, counting the edges crossed by a ray from the point towards
+    // decreasing longitude several edges at a time
+    private boolean ringContains(int ring, double latitude, double longitude) {
+        if (latitude < ringMinLats[ring] || latitude > ringMaxLats[ring] ||
+                longitude < ringMinLons[ring] || longitude > ringMaxLons[ring]) {
+            return false;
+        }
+        // Edge i runs from vertex i to vertex i + 1
+        int start = ringStarts[ring];
+        int end = ringStarts[ring + 1] - 1;
+        DoubleVector lat = DoubleVector.broadcast(SPECIES, latitude);
+        DoubleVector lon = DoubleVector.broadcast(SPECIES, longitude);
+        int crossings = 0;
+        int i = start;
+        for (; i <= end - SPECIES.length(); i += SPECIES.length()) {
+            DoubleVector lat1 = DoubleVector.fromArray(SPECIES, lats, i);
+            DoubleVector lat2 = DoubleVector.fromArray(SPECIES, lats, i + 1);
+            DoubleVector lon1 = DoubleVector.fromArray(SPECIES, lons, i);
+            DoubleVector lon2 = DoubleVector.fromArray(SPECIES, lons, i + 1);
+            VectorMask<Double> spans = lat1.compare(VectorOperators.GT, lat)
+                    .eq(lat2.compare(VectorOperators.GT, lat)).not();
+            // Edges not spanning the latitude may divide by zero, their lanes are masked out
+            DoubleVector crossing = lon1.sub(lon2).mul(lat.sub(lat2)).div(lat1.sub(lat2)).add(lon2);
+            crossings += spans.and(lon.compare(VectorOperators.LT, crossing)).trueCount();
+        }
+        for (; i < end; i++) {
+            if (crosses(lats[i], lons[i], lats[i + 1], lons[i + 1], latitude, longitude)) {
+                crossings++;
+            }
+        }
+        return (crossings & 1) == 1;
+    }
+
+    // Whether the edge is crossed by a ray from the point towards decreasing longitude, as Polygon2D computes it
+    private static boolean crosses(double lat1, double lon1, double lat2, double lon2,
+                                   double latitude, double longitude) {
+        return lat1 > latitude != lat2 > latitude &&
+                longitude < (lon1 - lon2) * (latitude - lat2) / (lat1 - lat2) + lon2;
+    }
+
+    /**
+     * Determines which of a batch of points are within the polygon, testing several points at a time against
+     * each edge. Cheaper per point than contains when many points fall in the same zone.
+     * @param latitudes - Latitude (y) coordinates of the points.
+     * @param longitudes - Longitude (x) coordinates of the points.
+     * @param from - Index of the first point tested.
+     * @param to - Index after the last point tested.
+     * @param inside - Set to whether each point is contained, at the same index as the point.
+     */
+    @Override
+    public void contains(double[] latitudes, double[] longitudes, int from, int to, boolean[] inside) {
+        int i = from;
+        for (; i <= to - SPECIES.length(); i += SPECIES.length()) {
+            DoubleVector lat = DoubleVector.fromArray(SPECIES, latitudes, i);
+            DoubleVector lon = DoubleVector.fromArray(SPECIES, longitudes, i);
+            VectorMask<Double> found = SPECIES.maskAll(false);
+            for (int part = 0; part < partStarts.length - 1 && !found.allTrue(); part++) {
+                VectorMask<Double> inPart = ringContains(partStarts[part], lat, lon);
+                for (int hole = partStarts[part] + 1; hole < partStarts[part + 1] && inPart.anyTrue(); hole++) {
+                    inPart = inPart.andNot(ringContains(hole, lat, lon));
+                }
+                found = found.or(inPart);
+            }
+            found.intoArray(inside, i);
+        }
+        for (; i < to; i++) {
+            inside[i] = contains(latitudes[i], longitudes[i]);
+        }
+    }
+
+    // Which of the points are inside the ring, testing them together against one edge at a time
+    private VectorMask<Double> ringContains(int ring, DoubleVector lat, DoubleVector lon) {
+        VectorMask<Double> inBox = lat.compare(VectorOperators.GE, ringMinLats[ring])
+                .and(lat.compare(VectorOperators.LE, ringMaxLats[ring]))
+                .and(lon.compare(VectorOperators.GE, ringMinLons[ring]))
+                .and(lon.compare(VectorOperators.LE, ringMaxLons[ring]));
+        if (!inBox.anyTrue()) {
+            return inBox;
+        }
+        VectorMask<Double> odd = SPECIES.maskAll(false);
+        for (int i = ringStarts[ring]; i < ringStarts[ring + 1] - 1; i++) {
+            double lat1 = lats[i];
+            double lat2 = lats[i + 1];
+            if (lat1 == lat2) {
+                // A horizontal edge is never crossed
+                continue;
+            }
+            double lon1 = lons[i];
+            double lon2 = lons[i + 1];
+            VectorMask<Double> spans = lat.compare(VectorOperators.LT, lat1)
+                    .eq(lat.compare(VectorOperators.LT, lat2)).not();
+            DoubleVector crossing = lat.sub(lat2).mul(lon1 - lon2).div(lat1 - lat2).add(lon2);
+            odd = odd.eq(spans.and(lon.compare(VectorOperators.LT, crossing))).not();
+        }
+        return odd.and(inBox);
+    }
+}
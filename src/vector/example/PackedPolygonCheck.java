@@ -0,0 +1,208 @@
+package example;
+
+import jdk.incubator.vector.DoubleVector;
+import org.apache.lucene.geo.Polygon;
+import org.apache.lucene.geo.Polygon2D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Differential test of PackedPolygon against Lucene's Polygon2D, which it must agree with on every point.
+ * Random zones are generated with holes and several parts, along with rectilinear zones whose horizontal edges
+ * lie on the latitudes of other vertices. Each zone is tested on random points, on its vertices, on the
+ * midpoints of its edges, on points along its horizontal edges and on points level with its vertices, both one
+ * point at a time and in batches whose ranges do not fill a whole number of vectors. Run with
+ * java --add-modules jdk.incubator.vector -cp &lt;classes and lucene-core jar&gt; example.PackedPolygonCheck
+ * [zones] [seed]; it exits with status 1 if any point differs.
+ */
+public class PackedPolygonCheck {
+
+    private static final int LANES = DoubleVector.SPECIES_PREFERRED.length();
+    private static final int RANDOM_POINTS = 200;
+
+    /**
+     * Tests generated zones and prints the number of points compared and how many differed.
+     * @param args - Optional number of zones of each kind, 200 by default, and random seed, 1 by default.
+     */
+    public static void main(String[] args) {
+        int zones = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+        long points = 0;
+        long mismatches = 0;
+        for (int i = 0; i < zones; i++) {
+            for (Polygon[] polygons : new Polygon[][]{starZone(random), rectilinearZone(random)}) {
+                double[][] tested = pointsFor(polygons, random);
+                points += tested[0].length;
+                mismatches += compare(polygons, tested[0], tested[1], random);
+            }
+        }
+        System.out.println(points + " points in " + zones * 2 + " zones compared with " + LANES +
+                " lanes, " + mismatches + " differed from Polygon2D.");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Counts the points on which PackedPolygon differs from Polygon2D, one at a time and over batch ranges
+    private static long compare(Polygon[] polygons, double[] lats, double[] lons, Random random) {
+        Polygon2D expected = Polygon2D.create(polygons);
+        PackedPolygon packed = new PackedPolygon(polygons);
+        boolean[] contained = new boolean[lats.length];
+        long mismatches = 0;
+        for (int i = 0; i < lats.length; i++) {
+            contained[i] = expected.contains(lats[i], lons[i]);
+            if (packed.contains(lats[i], lons[i]) != contained[i]) {
+                mismatches += report("single", lats[i], lons[i], contained[i]);
+            }
+        }
+        // Every length up to a few vectors from a random start, then random ranges, the points either side
+        // of the range being left as they were
+        ArrayList<int[]> ranges = new ArrayList<>();
+        for (int length = 0; length <= 3 * LANES + 1 && length <= lats.length; length++) {
+            int from = random.nextInt(lats.length - length + 1);
+            ranges.add(new int[]{from, from + length});
+        }
+        for (int i = 0; i < 20; i++) {
+            int from = random.nextInt(lats.length);
+            ranges.add(new int[]{from, from + random.nextInt(lats.length - from + 1)});
+        }
+        ranges.add(new int[]{0, lats.length});
+        boolean[] inside = new boolean[lats.length];
+        for (int[] range : ranges) {
+            boolean fill = random.nextBoolean();
+            Arrays.fill(inside, fill);
+            packed.contains(lats, lons, range[0], range[1], inside);
+            for (int i = 0; i < lats.length; i++) {
+                boolean wanted = i >= range[0] && i < range[1] ? contained[i] : fill;
+                if (inside[i] != wanted) {
+                    mismatches += report("batch " + range[0] + "-" + range[1], lats[i], lons[i], wanted);
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    private static int report(String test, double lat, double lon, boolean expected) {
+        System.out.println(test + " differs at " + lat + ", " + lon + ": Polygon2D gives " + expected);
+        return 1;
+    }
+
+    // Random points over the bounding box and every point on or level with the boundary
+    private static double[][] pointsFor(Polygon[] polygons, Random random) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        ArrayList<Polygon> rings = new ArrayList<>();
+        for (Polygon polygon : polygons) {
+            rings.add(polygon);
+            rings.addAll(Arrays.asList(polygon.getHoles()));
+            minLat = Math.min(minLat, polygon.minLat);
+            maxLat = Math.max(maxLat, polygon.maxLat);
+            minLon = Math.min(minLon, polygon.minLon);
+            maxLon = Math.max(maxLon, polygon.maxLon);
+        }
+        ArrayList<double[]> points = new ArrayList<>();
+        for (int i = 0; i < RANDOM_POINTS; i++) {
+            points.add(new double[]{minLat + random.nextDouble() * (maxLat - minLat),
+                    minLon + random.nextDouble() * (maxLon - minLon)});
+        }
+        for (Polygon ring : rings) {
+            double[] lats = ring.getPolyLats();
+            double[] lons = ring.getPolyLons();
+            for (int i = 0; i < lats.length - 1; i++) {
+                points.add(new double[]{lats[i], lons[i]});
+                points.add(new double[]{(lats[i] + lats[i + 1]) / 2, (lons[i] + lons[i + 1]) / 2});
+                points.add(new double[]{lats[i], minLon + random.nextDouble() * (maxLon - minLon)});
+                points.add(new double[]{lats[i], lons[i] - (maxLon - minLon) * 1e-3});
+                if (lats[i] == lats[i + 1]) {
+                    points.add(new double[]{lats[i], lons[i] + random.nextDouble() * (lons[i + 1] - lons[i])});
+                }
+            }
+        }
+        double[][] tested = new double[2][points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            tested[0][i] = points.get(i)[0];
+            tested[1][i] = points.get(i)[1];
+        }
+        return tested;
+    }
+
+    // One to three star shaped parts side by side, each with up to three holes
+    private static Polygon[] starZone(Random random) {
+        Polygon[] parts = new Polygon[1 + random.nextInt(3)];
+        for (int part = 0; part < parts.length; part++) {
+            double lat = 57 + random.nextDouble() * 0.01;
+            double lon = -4 + part * 0.05 + random.nextDouble() * 0.01;
+            Polygon[] holes = new Polygon[random.nextInt(4)];
+            for (int hole = 0; hole < holes.length; hole++) {
+                // Holes sit on a circle inside the part's smallest radius without touching each other
+                double angle = 2 * Math.PI * hole / Math.max(3, holes.length);
+                holes[hole] = star(lat + 0.006 * Math.sin(angle), lon + 0.006 * Math.cos(angle),
+                        0.001, 0.003, 3 + random.nextInt(20), random);
+            }
+            double[][] ring = starRing(lat, lon, 0.01, 0.02, 3 + random.nextInt(LANES * 8), random);
+            parts[part] = new Polygon(ring[0], ring[1], holes);
+        }
+        return parts;
+    }
+
+    private static Polygon star(double lat, double lon, double minRadius, double maxRadius, int vertices,
+                                Random random) {
+        double[][] ring = starRing(lat, lon, minRadius, maxRadius, vertices, random);
+        return new Polygon(ring[0], ring[1]);
+    }
+
+    // Vertices at increasing angles and random distances around a centre, so the ring never crosses itself
+    private static double[][] starRing(double lat, double lon, double minRadius, double maxRadius, int vertices,
+                                       Random random) {
+        double[] angles = new double[vertices];
+        for (int i = 0; i < vertices; i++) {
+            angles[i] = random.nextDouble() * 2 * Math.PI;
+        }
+        Arrays.sort(angles);
+        double[][] ring = new double[2][vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double radius = minRadius + random.nextDouble() * (maxRadius - minRadius);
+            ring[0][i] = lat + radius * Math.sin(angles[i]);
+            ring[1][i] = lon + radius * Math.cos(angles[i]);
+        }
+        ring[0][vertices] = ring[0][0];
+        ring[1][vertices] = ring[1][0];
+        return ring;
+    }
+
+    // A skyline of columns with heights on a coarse grid, so many edges are horizontal and share the latitude
+    // of other vertices, with a rectangular hole in one column tall enough to hold it
+    private static Polygon[] rectilinearZone(Random random) {
+        int columns = 2 + random.nextInt(LANES * 2);
+        double step = 0.001;
+        int[] heights = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            heights[i] = 2 + random.nextInt(5);
+        }
+        double[] lats = new double[2 * columns + 3];
+        double[] lons = new double[2 * columns + 3];
+        int n = 0;
+        lats[n] = 57;
+        lons[n++] = -4;
+        lats[n] = 57;
+        lons[n++] = -4 + columns * step;
+        for (int i = columns - 1; i >= 0; i--) {
+            lats[n] = 57 + heights[i] * step;
+            lons[n++] = -4 + (i + 1) * step;
+            lats[n] = 57 + heights[i] * step;
+            lons[n++] = -4 + i * step;
+        }
+        lats[n] = 57;
+        lons[n] = -4;
+        int column = random.nextInt(columns);
+        Polygon hole = new Polygon(
+                new double[]{57 + step / 4, 57 + step / 4, 57 + step, 57 + step, 57 + step / 4},
+                new double[]{-4 + (column + 0.25) * step, -4 + (column + 0.75) * step,
+                        -4 + (column + 0.75) * step, -4 + (column + 0.25) * step, -4 + (column + 0.25) * step});
+        return new Polygon[]{new Polygon(lats, lons, hole)};
+    }
+}